@@ -1,17 +1,31 @@
 package net.gmx.nosefish.fishyshield;
 
+import java.io.File;
+import java.io.IOException;
 
 import net.gmx.nosefish.fishylib.properties.Properties;
 
 import net.canarymod.Canary;
+import net.canarymod.api.world.World;
+import net.canarymod.commandsys.CommandDependencyException;
 import net.canarymod.logger.Logman;
 import net.canarymod.plugin.Plugin;
+import net.canarymod.tasks.ServerTask;
+import net.canarymod.tasks.ServerTaskManager;
 import net.canarymod.tasks.TaskOwner;
+import net.gmx.nosefish.fishyshield.commands.AdminCommands;
+import net.gmx.nosefish.fishyshield.engine.GovernedSettings;
+import net.gmx.nosefish.fishyshield.engine.LoadGovernor;
+import net.gmx.nosefish.fishyshield.engine.ProtectionEngine;
 import net.gmx.nosefish.fishyshield.listeners.EntityListener;
 import net.gmx.nosefish.fishyshield.listeners.ExplosionListener;
 import net.gmx.nosefish.fishyshield.listeners.FireListener;
 import net.gmx.nosefish.fishyshield.listeners.LiquidListener;
+import net.gmx.nosefish.fishyshield.listeners.WorldListener;
 import net.gmx.nosefish.fishyshield.properties.Key;
+import net.gmx.nosefish.fishyshield.properties.SharedConfigFile;
+import net.gmx.nosefish.fishyshield.properties.SharedConfigWatcher;
+import net.gmx.nosefish.fishyshield.properties.WorldSettingsCache;
 
 /**
  * A CanaryMod plugin that protects the world from environmental damage.
@@ -27,20 +41,47 @@ import net.gmx.nosefish.fishyshield.properties.Key;
  * 
  */
 public class FishyShield extends Plugin implements TaskOwner {
+	private static final long SHARED_CONFIG_POLL_MILLIS = 5000;
+	// max. number of worlds whose settings are kept resolved
+	private static final int WORLD_SETTINGS_CAPACITY = 64;
 	public static Logman logger;
 	public static Properties properties;
+	private WorldSettingsCache worldSettings;
+	private GovernedSettings governedSettings;
+	private LoadGovernor governor;
+	private ProtectionEngine engine;
+	private ServerTask tickTask;
+	private SharedConfigWatcher sharedConfigWatcher;
+	// the shared config setup in use, to notice changes on reload
+	private File sharedDirectory;
+	private boolean sharedPublish;
 
 
 	@Override
 	public void disable() {
+		if (tickTask != null) {
+			ServerTaskManager.removeTask(tickTask);
+			tickTask = null;
+		}
+		stopSharedConfig();
+		if (worldSettings != null) {
+			logger.info(getReport());
+		}
 	}
 
 	@Override
 	public boolean enable() {
+		long start = System.nanoTime();
 		logger = getLogman();
 		properties = new Properties(this);
 		properties.addMissingKeys(Key.getAllKeys());
+		initialize(new WorldSettingsCache(properties, WORLD_SETTINGS_CAPACITY));
+		startSharedConfig();
+		startTickTask();
 		registerListeners();
+		registerCommands();
+		logger.info(String.format("Enabled in %.1f ms. %s",
+				(System.nanoTime() - start) / 1e6, getReport()));
 		return true;
 	}
 
@@ -48,9 +89,252 @@ public class FishyShield extends Plugin implements TaskOwner {
 		return properties;
 	}
 
+	public WorldSettingsCache getWorldSettings() {
+		return worldSettings;
+	}
+
+	public ProtectionEngine getProtectionEngine() {
+		return engine;
+	}
+
+	/**
+	 * Releases everything kept for a world that has been unloaded.
+	 * 
+	 * @param world
+	 *            the unloaded world
+	 */
+	public void worldUnloaded(World world) {
+		int worldId = worldSettings.release(world);
+		if (worldId >= 0) {
+			// the world's ID will be reused
+			engine.worldReleased(worldId);
+		}
+		logger.debug("World " + world.getFqName() + " unloaded. "
+				+ getReport());
+	}
+
+	/**
+	 * Reads the properties file again, for <code>/fishyshield reload</code>.
+	 * The settings resolved from the old properties are discarded. If
+	 * <code>shared.directory</code> or <code>shared.publish</code> have
+	 * changed, the shared config is set up again. The shared config is not
+	 * published; see <code>publishSharedConfig</code>.
+	 */
+	public void reloadProperties() {
+		properties = new Properties(this);
+		properties.addMissingKeys(Key.getAllKeys());
+		worldSettings.setProperties(properties);
+		File directory = getSharedDirectory();
+		if ((directory == null ? sharedDirectory != null : !directory
+				.equals(sharedDirectory))
+				|| isPublishingSharedConfig() != sharedPublish) {
+			logger.info("Shared config properties changed, setting up the"
+					+ " shared config again");
+			stopSharedConfig();
+			startSharedConfig();
+		}
+		reloadSettings();
+	}
+
+	/**
+	 * Compiles the settings of all worlds into a new version of the shared
+	 * config, for <code>/fishyshield publish</code>. Nothing is published if
+	 * the settings have not changed since the latest version.
+	 * <p>
+	 * Compiling looks up every block ID in the block lists of every loaded
+	 * world, thousands of property lookups per world on the server thread.
+	 * So this only runs when an admin asks for it, and on startup if the
+	 * directory has no version yet.
+	 * 
+	 * @return a one-line description of the outcome
+	 */
+	public String publishSharedConfig() {
+		if (!isPublishingSharedConfig()) {
+			return "This server does not publish the shared config";
+		}
+		File directory = getSharedDirectory();
+		World defaultWorld = Canary.getServer().getDefaultWorld();
+		try {
+			long sequence = SharedConfigFile.publish(directory,
+					worldSettings.resolveProperties(defaultWorld),
+					worldSettings.resolveAll(Canary.getServer()
+							.getWorldManager().getAllWorlds()));
+			if (sequence == 0) {
+				return "Shared config in " + directory
+						+ " is up to date, nothing published";
+			}
+			return "Published shared config version " + sequence + " to "
+					+ directory;
+		} catch (IOException e) {
+			return "Could not publish shared config to " + directory + ": "
+					+ e.getMessage();
+		}
+	}
+
+	/**
+	 * Whether this server publishes the shared config instead of reading it.
+	 * 
+	 * @return true if <code>shared.directory</code> is set and
+	 *         <code>shared.publish</code> is true
+	 */
+	public boolean isPublishingSharedConfig() {
+		return getSharedDirectory() != null
+				&& properties.getBoolean(Canary.getServer().getDefaultWorld(),
+						Key.SHARED_PUBLISH);
+	}
+
+	/**
+	 * Discards all resolved world settings, so that changed properties take
+	 * effect.
+	 */
+	public void reloadSettings() {
+		worldSettings.clear();
+		governedSettings.clear();
+	}
+
+	/**
+	 * Sets up the settings and the <code>ProtectionEngine</code> the
+	 * listeners are created with. Called by <code>enable</code>, and by the
+	 * tests, which cannot enable the plugin without a server.
+	 * 
+	 * @param worldSettings
+	 *            resolves the settings of each world
+	 */
+	void initialize(WorldSettingsCache worldSettings) {
+		this.worldSettings = worldSettings;
+		governedSettings = new GovernedSettings(worldSettings);
+		worldSettings.setReleaseListener(governedSettings);
+		governor = new LoadGovernor();
+		engine = new ProtectionEngine(governedSettings);
+	}
+
 	// ----------------------------------------------------------------------
 	// private methods
 	// ----------------------------------------------------------------------
+	/**
+	 * Starts the task that advances the tick counter of the
+	 * <code>ProtectionEngine</code> and measures the tick rate for the
+	 * <code>LoadGovernor</code> once per server tick.
+	 */
+	private void startTickTask() {
+		tickTask = new ServerTask(this, 1, true) {
+			@Override
+			public void run() {
+				engine.tick();
+				if (governor.onTick(System.nanoTime())) {
+					onLoadLevelChanged();
+				}
+				if (sharedConfigWatcher != null) {
+					SharedConfigFile version = sharedConfigWatcher
+							.takeNewVersion();
+					if (version != null) {
+						applySharedConfig(version);
+					}
+				}
+			}
+		};
+		ServerTaskManager.addTask(tickTask);
+	}
+
+	/**
+	 * Sets up the shared config if <code>shared.directory</code> is set in the
+	 * properties of the default world. If <code>shared.publish</code> is
+	 * true, this server compiles its settings into the first version for the
+	 * others, unless there already is one; only one server may publish.
+	 * Otherwise the newest readable version is loaded and the directory is
+	 * watched for new ones.
+	 */
+	private void startSharedConfig() {
+		File directory = getSharedDirectory();
+		sharedDirectory = directory;
+		sharedPublish = isPublishingSharedConfig();
+		if (directory == null) {
+			return;
+		}
+		if (sharedPublish) {
+			long sequence = SharedConfigFile.findLatestSequence(directory);
+			if (sequence == 0) {
+				logger.info(publishSharedConfig());
+			} else {
+				logger.info("Shared config version " + sequence + " found in "
+						+ directory + ", use /fishyshield publish to update it");
+			}
+			return;
+		}
+		sharedConfigWatcher = new SharedConfigWatcher(directory, 0,
+				SHARED_CONFIG_POLL_MILLIS);
+		// load the newest readable version before the first hook
+		SharedConfigFile version = sharedConfigWatcher.readNewVersion();
+		if (version != null) {
+			applySharedConfig(version);
+		}
+		sharedConfigWatcher.start();
+	}
+
+	/**
+	 * Stops watching the shared directory and goes back to the settings from
+	 * the properties.
+	 */
+	private void stopSharedConfig() {
+		if (sharedConfigWatcher != null) {
+			sharedConfigWatcher.stop();
+			sharedConfigWatcher = null;
+		}
+		if (worldSettings != null) {
+			worldSettings.setSharedConfig(null);
+		}
+	}
+
+	/**
+	 * Gets the shared directory from the properties of the default world.
+	 * 
+	 * @return the directory, or null if <code>shared.directory</code> is not
+	 *         set
+	 */
+	private File getSharedDirectory() {
+		String path = properties.getString(Canary.getServer()
+				.getDefaultWorld(), Key.SHARED_DIRECTORY);
+		if (path == null || path.trim().isEmpty()) {
+			return null;
+		}
+		return new File(path.trim());
+	}
+
+	/**
+	 * Switches to a version of the shared config.
+	 * 
+	 * @param version
+	 *            the version to use
+	 */
+	private void applySharedConfig(SharedConfigFile version) {
+		worldSettings.setSharedConfig(version);
+		reloadSettings();
+		logger.info("Using shared config version " + version.getSequence());
+	}
+
+	/**
+	 * Applies a new load level of the <code>LoadGovernor</code> to the
+	 * protection settings.
+	 */
+	private void onLoadLevelChanged() {
+		LoadGovernor.Level level = governor.getLevel();
+		logger.info(String.format(
+				"Server load level changed from %s to %s (%.1f TPS)",
+				governedSettings.getLevel(), level, governor.getTps()));
+		governedSettings.setLevel(level);
+	}
+
+	/**
+	 * Combines the report of the world settings cache with the current load
+	 * level and the number of settings overridden for it, for the log on
+	 * enable, disable and world unload.
+	 * 
+	 * @return a one-line report
+	 */
+	private String getReport() {
+		return worldSettings.getReport() + ". " + governedSettings.getReport();
+	}
+
 	/**
 	 * Registers all PluginListeners with the CanaryMod hook system
 	 */
@@ -63,5 +347,19 @@ public class FishyShield extends Plugin implements TaskOwner {
 		Canary.hooks().registerListener(new LiquidListener(this), this);
 		// entities
 		Canary.hooks().registerListener(new EntityListener(this), this);
+		// world unloading
+		Canary.hooks().registerListener(new WorldListener(this), this);
+	}
+
+	/**
+	 * Registers the admin commands with the CanaryMod command system
+	 */
+	private void registerCommands() {
+		try {
+			Canary.commands().registerCommands(new AdminCommands(this), this,
+					false);
+		} catch (CommandDependencyException e) {
+			logger.warn("Could not register commands: " + e.getMessage());
+		}
 	}
 }
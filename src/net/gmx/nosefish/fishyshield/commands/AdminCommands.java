@@ -0,0 +1,60 @@
+package net.gmx.nosefish.fishyshield.commands;
+
+import net.canarymod.chat.MessageReceiver;
+import net.canarymod.commandsys.Command;
+import net.canarymod.commandsys.CommandListener;
+import net.gmx.nosefish.fishyshield.FishyShield;
+
+/**
+ * A <code>CommandListener</code> with the commands for server admins.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public class AdminCommands implements CommandListener {
+	private final FishyShield plugin;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param plugin
+	 *            the plugin registering the commands
+	 */
+	public AdminCommands(FishyShield plugin) {
+		this.plugin = plugin;
+	}
+
+	@Command(aliases = { "fishyshield" },
+			description = "FishyShield administration",
+			permissions = { "fishyshield.admin" },
+			toolTip = "/fishyshield <reload|publish>")
+	public void fishyShield(MessageReceiver caller, String[] parameters) {
+		caller.message("Usage: /fishyshield <reload|publish>");
+	}
+
+	@Command(aliases = { "reload" },
+			parent = "fishyshield",
+			description = "Reads the properties again and applies them",
+			permissions = { "fishyshield.admin.reload" },
+			toolTip = "/fishyshield reload")
+	public void reload(MessageReceiver caller, String[] parameters) {
+		plugin.reloadProperties();
+		caller.message("FishyShield properties reloaded.");
+		if (plugin.isPublishingSharedConfig()) {
+			caller.message("Use /fishyshield publish to share them.");
+		}
+		FishyShield.logger.info("Properties reloaded by " + caller.getName());
+	}
+
+	@Command(aliases = { "publish" },
+			parent = "fishyshield",
+			description = "Publishes the settings as a new shared config version",
+			permissions = { "fishyshield.admin.publish" },
+			toolTip = "/fishyshield publish")
+	public void publish(MessageReceiver caller, String[] parameters) {
+		String result = plugin.publishSharedConfig();
+		caller.message(result);
+		FishyShield.logger.info(result + " (requested by " + caller.getName()
+				+ ")");
+	}
+}
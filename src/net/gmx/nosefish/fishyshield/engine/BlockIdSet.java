@@ -0,0 +1,124 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+/**
+ * A fixed-size set of block IDs, backed by a bit field.
+ * <p>
+ * Used instead of a <code>Set&lt;Integer&gt;</code> so that lookups on the
+ * hot paths neither box nor allocate.
+ * <p>
+ * The IDs can be added up front, or looked up on demand from a
+ * <code>Lookup</code>: each ID is then asked for once, on its first query,
+ * and the answer is kept in the bit field. A second bit field marks the IDs
+ * whose answer is known.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class BlockIdSet {
+	/**
+	 * The highest block ID that can be stored.
+	 */
+	public static final int MAX_BLOCK_ID = 4095;
+
+	/**
+	 * Answers whether a block ID is in the set, for IDs that have not been
+	 * queried yet.
+	 */
+	public interface Lookup {
+		boolean contains(int id);
+	}
+
+	private final long[] bits = new long[(MAX_BLOCK_ID >>> 6) + 1];
+	private final long[] known = new long[(MAX_BLOCK_ID >>> 6) + 1];
+	// null once every ID is known
+	private Lookup lookup;
+
+	/**
+	 * Adds a block ID to the set. IDs outside of
+	 * <code>0..MAX_BLOCK_ID</code> are ignored.
+	 * 
+	 * @param id
+	 *            the block ID
+	 */
+	public void add(int id) {
+		if (id >= 0 && id <= MAX_BLOCK_ID) {
+			bits[id >>> 6] |= 1L << id;
+			known[id >>> 6] |= 1L << id;
+		}
+	}
+
+	/**
+	 * Makes the set look up the IDs that have not been added on demand. Each
+	 * ID is looked up at most once.
+	 * 
+	 * @param lookup
+	 *            answers whether an ID is in the set
+	 */
+	public void setLookup(Lookup lookup) {
+		this.lookup = lookup;
+	}
+
+	/**
+	 * Makes this set a copy of another set. IDs the other set has not looked
+	 * up yet are looked up by the copy on demand, from the same
+	 * <code>Lookup</code>.
+	 * 
+	 * @param other
+	 *            the set to copy from
+	 */
+	public void copyFrom(BlockIdSet other) {
+		System.arraycopy(other.bits, 0, bits, 0, bits.length);
+		System.arraycopy(other.known, 0, known, 0, known.length);
+		lookup = other.lookup;
+	}
+
+	/**
+	 * Checks whether a block ID is in the set.
+	 * 
+	 * @param id
+	 *            the block ID
+	 * @return true if the ID has been added, false otherwise
+	 */
+	public boolean contains(int id) {
+		if (id < 0 || id > MAX_BLOCK_ID) {
+			return false;
+		}
+		long bit = 1L << id;
+		if (lookup != null && (known[id >>> 6] & bit) == 0) {
+			known[id >>> 6] |= bit;
+			if (lookup.contains(id)) {
+				bits[id >>> 6] |= bit;
+			}
+		}
+		return (bits[id >>> 6] & bit) != 0;
+	}
+
+	/**
+	 * Finds the next ID in the set, for iterating over all IDs. Looks up all
+	 * IDs that are not known yet.
+	 * 
+	 * @param from
+	 *            the ID to start searching at, inclusive
+	 * @return the smallest ID in the set that is not less than
+	 *         <code>from</code>, or -1 if there is none
+	 */
+	public int next(int from) {
+		lookUpAll();
+		for (int id = Math.max(from, 0); id <= MAX_BLOCK_ID; ++id) {
+			if ((bits[id >>> 6] & (1L << id)) != 0) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	private void lookUpAll() {
+		if (lookup == null) {
+			return;
+		}
+		for (int id = 0; id <= MAX_BLOCK_ID; ++id) {
+			contains(id);
+		}
+		lookup = null;
+	}
+}
@@ -0,0 +1,122 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+/**
+ * Counts denied fire destructions by location to find fires that will burn
+ * forever.
+ * <p>
+ * A fire next to a protected block keeps asking to destroy it every few ticks
+ * for as long as it burns. Each denied attempt is recorded here; once a
+ * location has been denied <code>threshold</code> times, with no more than
+ * <code>window</code> ticks between attempts, the caller should remove the
+ * fire for good.
+ * <p>
+ * A fixed-size hash table with open addressing and linear probing. Entries
+ * of fires that went out are reused.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class FireTracker {
+	private static final int MAX_PROBE = 8;
+
+	private final int mask;
+	private final int threshold;
+	private final int window;
+	private final long[] positions;
+	// world ID + 1, 0 marks an empty slot
+	private final int[] worlds;
+	private final int[] counts;
+	private final long[] lastSeen;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity
+	 *            the number of slots, rounded up to a power of two
+	 * @param threshold
+	 *            the number of denied attempts after which a fire is
+	 *            considered perpetual
+	 * @param window
+	 *            the maximum number of ticks between two attempts for them to
+	 *            count towards the same fire
+	 */
+	public FireTracker(int capacity, int threshold, int window) {
+		int size = Integer.highestOneBit(Math.max(capacity, MAX_PROBE) - 1) << 1;
+		this.mask = size - 1;
+		this.threshold = threshold;
+		this.window = window;
+		this.positions = new long[size];
+		this.worlds = new int[size];
+		this.counts = new int[size];
+		this.lastSeen = new long[size];
+	}
+
+	/**
+	 * Records a denied fire destruction.
+	 * 
+	 * @param worldId
+	 *            the world ID
+	 * @param packedPos
+	 *            the packed coordinates of the protected block
+	 * @param now
+	 *            the current tick
+	 * @return true if the threshold has been reached and the fire should be
+	 *         removed. The count of the location starts over in that case.
+	 */
+	public boolean recordDenied(int worldId, long packedPos, long now) {
+		int world = worldId + 1;
+		// mix the world into the high bits before multiplying, so that the
+		// same position in cloned worlds lands in different slots
+		int slot = (int) (((packedPos ^ ((long) world << 38))
+				* 0x9E3779B97F4A7C15L) >>> 40) & mask;
+		int target = -1;
+		for (int probe = 0; probe < MAX_PROBE; ++probe) {
+			int i = (slot + probe) & mask;
+			if (worlds[i] == 0) {
+				if (target < 0) {
+					target = i;
+				}
+				break;
+			}
+			if (worlds[i] == world && positions[i] == packedPos) {
+				if (now - lastSeen[i] > window) {
+					// the old fire went out, this is a new one
+					counts[i] = 0;
+				}
+				lastSeen[i] = now;
+				if (++counts[i] >= threshold) {
+					counts[i] = 0;
+					return true;
+				}
+				return false;
+			}
+			if (target < 0 && now - lastSeen[i] > window) {
+				target = i;
+			}
+		}
+		if (target < 0) {
+			target = slot;
+		}
+		worlds[target] = world;
+		positions[target] = packedPos;
+		lastSeen[target] = now;
+		counts[target] = 1;
+		return threshold <= 1;
+	}
+
+	/**
+	 * Forgets the locations in one world. Locations of other worlds behind
+	 * a freed slot may no longer be found, which only restarts their count.
+	 * 
+	 * @param worldId
+	 *            the world ID
+	 */
+	public void clear(int worldId) {
+		int world = worldId + 1;
+		for (int i = 0; i <= mask; ++i) {
+			if (worlds[i] == world) {
+				worlds[i] = 0;
+			}
+		}
+	}
+}
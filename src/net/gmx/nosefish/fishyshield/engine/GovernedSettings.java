@@ -0,0 +1,132 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+import java.util.Arrays;
+
+import net.gmx.nosefish.fishyshield.engine.LoadGovernor.Level;
+
+/**
+ * A <code>WorldSettingsSource</code> that replaces the configured settings
+ * with the cheapest ones while the server is under load.
+ * <p>
+ * At <code>Level.NORMAL</code> the settings of the wrapped source are passed
+ * through unchanged. At higher levels a copy is returned in which the
+ * settings that cause the most block updates are overridden:
+ * <ul>
+ * <li><code>STRAINED</code>: no fire spread, no cascading TNT</li>
+ * <li><code>OVERLOADED</code>: additionally, explosions and liquids destroy
+ * no blocks</li>
+ * </ul>
+ * The overrides are load settings of their own, which the
+ * <code>ProtectionEngine</code> applies on top of the configured ones. They
+ * take effect whether the protection they belong to is enabled or not, and
+ * leave all configured settings as they are, including the handling of
+ * unknown fire and explosion sources. With block damage enabled, cascading
+ * TNT is stopped by keeping the TNT blocks out of every explosion.
+ * <p>
+ * A copy is dropped when the wrapped source drops the settings it was made
+ * from, so there are never more copies than resolved settings.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public class GovernedSettings implements WorldSettingsSource,
+		SettingsReleaseListener {
+	private final WorldSettingsSource source;
+	private WorldSettings[] overridden;
+	private int overriddenCount;
+	private Level level = Level.NORMAL;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param source
+	 *            supplies the configured settings
+	 */
+	public GovernedSettings(WorldSettingsSource source) {
+		this.source = source;
+		this.overridden = new WorldSettings[16];
+	}
+
+	/**
+	 * Sets the load level.
+	 * 
+	 * @param level
+	 *            the new load level
+	 */
+	public void setLevel(Level level) {
+		this.level = level;
+		clear();
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Discards the overridden copies. Must be called when the settings of the
+	 * wrapped source change.
+	 */
+	public void clear() {
+		Arrays.fill(overridden, null);
+		overriddenCount = 0;
+	}
+
+	/**
+	 * Describes the load level and the number of overridden copies.
+	 * 
+	 * @return a one-line report
+	 */
+	public String getReport() {
+		return String.format("Load level %s, %d overridden world settings",
+				level, overriddenCount);
+	}
+
+	@Override
+	public void settingsReleased(int worldId) {
+		if (worldId < overridden.length && overridden[worldId] != null) {
+			overridden[worldId] = null;
+			--overriddenCount;
+		}
+	}
+
+	@Override
+	public WorldSettings getSettings(int worldId) {
+		if (level == Level.NORMAL) {
+			return source.getSettings(worldId);
+		}
+		if (worldId >= overridden.length) {
+			overridden = Arrays.copyOf(overridden,
+					Math.max(worldId + 1, overridden.length * 2));
+		}
+		// always ask the source, to keep its use order up to date
+		WorldSettings configured = source.getSettings(worldId);
+		WorldSettings settings = overridden[worldId];
+		if (settings == null) {
+			settings = override(configured, level);
+			overridden[worldId] = settings;
+			++overriddenCount;
+		}
+		return settings;
+	}
+
+	/**
+	 * Creates a copy of the configured settings with the overrides for a load
+	 * level applied.
+	 * 
+	 * @param configured
+	 *            the configured settings
+	 * @param level
+	 *            the load level, not <code>NORMAL</code>
+	 * @return the overridden copy
+	 */
+	private static WorldSettings override(WorldSettings configured, Level level) {
+		WorldSettings ws = new WorldSettings(configured);
+		ws.setIgniteStopSpread(true);
+		ws.setExplosionStopCascade(true);
+		if (level == Level.OVERLOADED) {
+			ws.setExplosionProtectAll(true);
+			ws.setLiquidProtectAll(true);
+		}
+		return ws;
+	}
+}
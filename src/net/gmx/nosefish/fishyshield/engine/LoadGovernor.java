@@ -0,0 +1,125 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+/**
+ * Measures the server tick rate and derives a load level from it.
+ * <p>
+ * <code>onTick</code> must be called once per server tick. The governor keeps
+ * the durations of the last <code>WINDOW</code> ticks and, every
+ * <code>EVALUATE_INTERVAL</code> ticks, compares the resulting ticks per
+ * second against the thresholds of the current level. Each level has a lower
+ * threshold to enter it and a higher one to leave it again, so the level does
+ * not flap when the tick rate hovers around a threshold.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class LoadGovernor {
+	/**
+	 * Load levels, from no load to heavy load.
+	 */
+	public static enum Level {
+		/** the server keeps up, configured settings apply */
+		NORMAL(Double.MAX_VALUE, 0),
+		/** the server falls behind, fire spread and TNT cascades are stopped */
+		STRAINED(17.0, 19.0),
+		/** the server is far behind, all optional block updates are stopped */
+		OVERLOADED(12.0, 15.0);
+
+		private final double enterBelowTps;
+		private final double leaveAboveTps;
+
+		private Level(double enterBelowTps, double leaveAboveTps) {
+			this.enterBelowTps = enterBelowTps;
+			this.leaveAboveTps = leaveAboveTps;
+		}
+	}
+
+	private static final Level[] LEVELS = Level.values();
+	private static final double TARGET_TPS = 20.0;
+	private static final int WINDOW = 100;
+	private static final int EVALUATE_INTERVAL = 20;
+
+	private final long[] durations = new long[WINDOW];
+	private long durationSum;
+	private int samples;
+	private int next;
+	private long lastTickNanos;
+	private int ticksSinceEvaluation;
+	private Level level = Level.NORMAL;
+
+	/**
+	 * Records a tick.
+	 * 
+	 * @param nanoTime
+	 *            the current value of <code>System.nanoTime()</code>
+	 * @return true if the load level has changed
+	 */
+	public boolean onTick(long nanoTime) {
+		if (lastTickNanos != 0) {
+			long duration = nanoTime - lastTickNanos;
+			durationSum += duration - durations[next];
+			durations[next] = duration;
+			next = (next + 1) % WINDOW;
+			if (samples < WINDOW) {
+				++samples;
+			}
+		}
+		lastTickNanos = nanoTime;
+		if (++ticksSinceEvaluation < EVALUATE_INTERVAL || samples < WINDOW) {
+			return false;
+		}
+		ticksSinceEvaluation = 0;
+		Level newLevel = evaluate(getTps());
+		if (newLevel == level) {
+			return false;
+		}
+		level = newLevel;
+		return true;
+	}
+
+	/**
+	 * Gets the ticks per second, averaged over the last <code>WINDOW</code>
+	 * ticks.
+	 * 
+	 * @return the measured ticks per second, at most 20
+	 */
+	public double getTps() {
+		if (samples == 0 || durationSum <= 0) {
+			return TARGET_TPS;
+		}
+		double tps = 1e9 * samples / durationSum;
+		return Math.min(tps, TARGET_TPS);
+	}
+
+	/**
+	 * Gets the current load level.
+	 * 
+	 * @return the load level
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Finds the level for the measured tick rate, starting from the current
+	 * level.
+	 * 
+	 * @param tps
+	 *            the measured ticks per second
+	 * @return the new level
+	 */
+	private Level evaluate(double tps) {
+		Level[] levels = LEVELS;
+		int current = level.ordinal();
+		// step up while the next level's enter threshold is undercut
+		while (current + 1 < levels.length
+				&& tps < levels[current + 1].enterBelowTps) {
+			++current;
+		}
+		// step down while the current level's leave threshold is exceeded
+		while (current > 0 && tps >= levels[current].leaveAboveTps) {
+			--current;
+		}
+		return levels[current];
+	}
+}
@@ -0,0 +1,413 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+import java.util.BitSet;
+
+/**
+ * Makes all protection decisions of FishyShield.
+ * <p>
+ * The engine does not depend on the server API. Events are described by
+ * primitive values: a world ID, packed block coordinates, a block ID, a cause
+ * and a bit field of the permissions the acting player holds. The listeners
+ * translate hooks into these values and act on the result, so the decision
+ * logic can be reused, tested, and applied to many blocks in one call.
+ * <p>
+ * The batch methods write their results into a caller-supplied
+ * <code>BitSet</code>, which can be reused between calls.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public class ProtectionEngine {
+	// decisions
+	public static final int ALLOW = 0;
+	public static final int DENY = 1;
+	/** denied because the player lacks the permission to use the item */
+	public static final int DENY_PERMISSION = 2;
+	/** denied because the block is fireproof */
+	public static final int DENY_FIREPROOF = 3;
+
+	// ignition causes
+	public static final int CAUSE_UNKNOWN = 0;
+	public static final int CAUSE_LAVA = 1;
+	public static final int CAUSE_FLINT_AND_STEEL = 2;
+	public static final int CAUSE_FIRE_SPREAD = 3;
+	public static final int CAUSE_BURNT = 4;
+	public static final int CAUSE_LIGHTNING = 5;
+	public static final int CAUSE_FIRECHARGE = 6;
+	public static final int CAUSE_FIREBALL = 7;
+
+	// permissions of the acting player
+	public static final int PERM_NONE = 0;
+	public static final int PERM_FLINT_AND_STEEL = 1;
+	public static final int PERM_FIRECHARGE = 1 << 1;
+	public static final int PERM_FIREPROOF = 1 << 2;
+
+	// explosion types
+	public static final int EXPLOSION_UNKNOWN = 0;
+	public static final int EXPLOSION_TNT = 1;
+	public static final int EXPLOSION_CREEPER = 2;
+	public static final int EXPLOSION_GHAST = 3;
+	public static final int EXPLOSION_WITHER = 4;
+
+	// explosion results
+	/** the explosion may destroy all affected blocks */
+	public static final int EXPLOSION_UNCHANGED = 0;
+	/** only the blocks marked in the result mask may be destroyed */
+	public static final int EXPLOSION_FILTERED = 1;
+	/** the explosion must be canceled */
+	public static final int EXPLOSION_CANCELED = 2;
+
+	// sources of damage to hanging entities
+	public static final int SOURCE_NONE = 0;
+	public static final int SOURCE_PLAYER = 1;
+	public static final int SOURCE_MOB = 2;
+	public static final int SOURCE_EXPLOSION = 3;
+	public static final int SOURCE_FIRE = 4;
+	public static final int SOURCE_OTHER = 5;
+
+	// block IDs the decisions depend on
+	public static final int BLOCK_AIR = 0;
+	public static final int BLOCK_TNT = 46;
+
+	// denied burn attempts after which a fire is removed from all faces
+	private static final int PERPETUAL_FIRE_THRESHOLD = 3;
+	// max. ticks between burn attempts of the same fire
+	private static final int PERPETUAL_FIRE_WINDOW = 200;
+	private static final int FIRE_TRACKER_CAPACITY = 1024;
+
+	private final WorldSettingsSource settingsSource;
+	private final FireTracker fireTracker;
+	private long currentTick;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param settingsSource
+	 *            supplies the settings for each world ID
+	 */
+	public ProtectionEngine(WorldSettingsSource settingsSource) {
+		this.settingsSource = settingsSource;
+		this.fireTracker = new FireTracker(FIRE_TRACKER_CAPACITY,
+				PERPETUAL_FIRE_THRESHOLD, PERPETUAL_FIRE_WINDOW);
+	}
+
+	/**
+	 * Advances the tick counter of the engine. Must be called once per server
+	 * tick.
+	 */
+	public void tick() {
+		++currentTick;
+	}
+
+	/**
+	 * Forgets everything that is kept for a world. Must be called when a
+	 * world ID is released, before it is assigned to another world.
+	 * 
+	 * @param worldId
+	 *            the released world ID
+	 */
+	public void worldReleased(int worldId) {
+		fireTracker.clear(worldId);
+	}
+
+	/**
+	 * Packs block coordinates into a single <code>long</code>. x and z use
+	 * 26 bits each, y uses 12 bits.
+	 * 
+	 * @param x
+	 *            the x coordinate
+	 * @param y
+	 *            the y coordinate
+	 * @param z
+	 *            the z coordinate
+	 * @return the packed coordinates
+	 */
+	public static long pack(int x, int y, int z) {
+		return ((x & 0x3FFFFFFL) << 38) | ((z & 0x3FFFFFFL) << 12)
+				| (y & 0xFFFL);
+	}
+
+	/**
+	 * Decides whether a block may be set on fire, or destroyed by fire if the
+	 * cause is <code>CAUSE_BURNT</code>.
+	 * 
+	 * @param worldId
+	 *            the world the block is in
+	 * @param blockId
+	 *            the ID of the block
+	 * @param cause
+	 *            one of the <code>CAUSE_</code> constants
+	 * @param permissions
+	 *            the <code>PERM_</code> bits held by the player causing the
+	 *            fire, <code>PERM_NONE</code> if no player is involved
+	 * @return <code>ALLOW</code>, <code>DENY</code>,
+	 *         <code>DENY_PERMISSION</code>, or <code>DENY_FIREPROOF</code>
+	 */
+	public int evaluateIgnition(int worldId, int blockId, int cause,
+			int permissions) {
+		WorldSettings settings = settingsSource.getSettings(worldId);
+		if (cause == CAUSE_FIRE_SPREAD && settings.isIgniteStopSpread()) {
+			return DENY;
+		}
+		if (!settings.isIgniteEnable()) {
+			return ALLOW;
+		}
+		boolean fireproof = settings.getFireproofBlocks().contains(blockId);
+		switch (cause) {
+		case CAUSE_LAVA:
+			return deny(!settings.isIgniteLava() || fireproof);
+		case CAUSE_FLINT_AND_STEEL:
+			return playerIgnition(settings.isIgniteFlintAndSteel(),
+					PERM_FLINT_AND_STEEL, fireproof, permissions);
+		case CAUSE_FIRE_SPREAD:
+			return deny(!settings.isIgniteFireSpread() || fireproof);
+		case CAUSE_BURNT:
+			return deny(!settings.isIgniteDestroy() || fireproof);
+		case CAUSE_LIGHTNING:
+			return deny(!settings.isIgniteLightning() || fireproof);
+		case CAUSE_FIRECHARGE:
+			return playerIgnition(settings.isIgniteFireCharge(),
+					PERM_FIRECHARGE, fireproof, permissions);
+		case CAUSE_FIREBALL:
+			return deny(!settings.isIgniteFireball() || fireproof);
+		default:
+			// whatever other fire source there may be in the future, block it
+			return DENY;
+		}
+	}
+
+	/**
+	 * Evaluates a batch of ignitions in one world.
+	 * 
+	 * @param worldId
+	 *            the world the blocks are in
+	 * @param blockIds
+	 *            the ID of each block
+	 * @param causes
+	 *            the cause of each ignition
+	 * @param permissions
+	 *            the permissions of the player causing each ignition
+	 * @param count
+	 *            the number of entries to evaluate
+	 * @param denied
+	 *            receives the results: bit <code>i</code> is set if entry
+	 *            <code>i</code> is denied. Cleared before use.
+	 * @return the number of denied entries
+	 */
+	public int evaluateIgnitions(int worldId, int[] blockIds, int[] causes,
+			int[] permissions, int count, BitSet denied) {
+		denied.clear();
+		int deniedCount = 0;
+		for (int i = 0; i < count; ++i) {
+			if (evaluateIgnition(worldId, blockIds[i], causes[i],
+					permissions[i]) != ALLOW) {
+				denied.set(i);
+				++deniedCount;
+			}
+		}
+		return deniedCount;
+	}
+
+	/**
+	 * Records that a fire was denied to destroy a block, to find fires that
+	 * keep burning a protected block.
+	 * 
+	 * @param worldId
+	 *            the world the block is in
+	 * @param x
+	 *            the x coordinate of the block
+	 * @param y
+	 *            the y coordinate of the block
+	 * @param z
+	 *            the z coordinate of the block
+	 * @return true if the fire has been denied repeatedly and should be
+	 *         removed from all faces of the block
+	 */
+	public boolean recordBurnDenied(int worldId, int x, int y, int z) {
+		return fireTracker.recordDenied(worldId, pack(x, y, z), currentTick);
+	}
+
+	/**
+	 * Decides whether a block may be destroyed by flowing liquid.
+	 * 
+	 * @param worldId
+	 *            the world the block is in
+	 * @param blockId
+	 *            the ID of the block
+	 * @return <code>ALLOW</code> or <code>DENY</code>
+	 */
+	public int evaluateLiquid(int worldId, int blockId) {
+		WorldSettings settings = settingsSource.getSettings(worldId);
+		return deny(settings.isLiquidProtectAll()
+				|| (settings.isLiquidEnable() && settings.getLiquidBlocks()
+						.contains(blockId)));
+	}
+
+	/**
+	 * Evaluates a batch of liquid destructions in one world.
+	 * 
+	 * @param worldId
+	 *            the world the blocks are in
+	 * @param blockIds
+	 *            the ID of each block
+	 * @param count
+	 *            the number of entries to evaluate
+	 * @param denied
+	 *            receives the results: bit <code>i</code> is set if entry
+	 *            <code>i</code> is denied. Cleared before use.
+	 * @return the number of denied entries
+	 */
+	public int evaluateLiquids(int worldId, int[] blockIds, int count,
+			BitSet denied) {
+		denied.clear();
+		int deniedCount = 0;
+		for (int i = 0; i < count; ++i) {
+			if (evaluateLiquid(worldId, blockIds[i]) != ALLOW) {
+				denied.set(i);
+				++deniedCount;
+			}
+		}
+		return deniedCount;
+	}
+
+	/**
+	 * Decides which of the blocks affected by an explosion may be destroyed.
+	 * <p>
+	 * Even if block damage is disabled, TNT may still be set off by other TNT
+	 * if cascading is enabled, and ghast fireballs keep the air blocks so that
+	 * they can still start fires, which are then handled as ignitions.
+	 * <p>
+	 * The load settings <code>isExplosionStopCascade</code> and
+	 * <code>isExplosionProtectAll</code> apply to every explosion, even if
+	 * the explosion protection is disabled. Only explosions of unknown type
+	 * in a world with the protection enabled are canceled.
+	 * 
+	 * @param worldId
+	 *            the world the explosion happens in
+	 * @param explosionType
+	 *            one of the <code>EXPLOSION_</code> type constants
+	 * @param blockIds
+	 *            the IDs of the affected blocks
+	 * @param count
+	 *            the number of affected blocks
+	 * @param keep
+	 *            receives the blocks that may still be destroyed when the
+	 *            result is <code>EXPLOSION_FILTERED</code>: bit
+	 *            <code>i</code> is set if block <code>i</code> stays affected.
+	 *            Cleared before use.
+	 * @return <code>EXPLOSION_UNCHANGED</code>,
+	 *         <code>EXPLOSION_FILTERED</code>, or
+	 *         <code>EXPLOSION_CANCELED</code>
+	 */
+	public int evaluateExplosion(int worldId, int explosionType,
+			int[] blockIds, int count, BitSet keep) {
+		keep.clear();
+		WorldSettings settings = settingsSource.getSettings(worldId);
+		boolean enable = settings.isExplosionEnable();
+		if (enable && (explosionType < EXPLOSION_TNT
+				|| explosionType > EXPLOSION_WITHER)) {
+			// block unknown explosions just to be safe.
+			return EXPLOSION_CANCELED;
+		}
+		boolean damageBlocks = !settings.isExplosionProtectAll()
+				&& (!enable || settings.isExplosionDamageBlocks());
+		boolean stopCascade = settings.isExplosionStopCascade();
+		if (damageBlocks) {
+			if (!stopCascade) {
+				return EXPLOSION_UNCHANGED;
+			}
+			// destroy everything but the TNT, so that it is not set off
+			keepBlocksExcept(BLOCK_TNT, blockIds, count, keep);
+			return EXPLOSION_FILTERED;
+		}
+		switch (explosionType) {
+		case EXPLOSION_TNT:
+			if (!stopCascade && (!enable || settings.isExplosionCascadeTnt())) {
+				// allow cascading TNT explosions
+				keepBlocks(BLOCK_TNT, blockIds, count, keep);
+			}
+			return EXPLOSION_FILTERED;
+		case EXPLOSION_GHAST:
+			// Air blocks stay affected to allow fireballs to start fires
+			keepBlocks(BLOCK_AIR, blockIds, count, keep);
+			return EXPLOSION_FILTERED;
+		default:
+			return EXPLOSION_FILTERED;
+		}
+	}
+
+	/**
+	 * Decides whether a hanging entity (painting, item frame) may be
+	 * destroyed. Players are always allowed to destroy them.
+	 * 
+	 * @param worldId
+	 *            the world the entity is in
+	 * @param source
+	 *            one of the <code>SOURCE_</code> constants
+	 * @return <code>ALLOW</code> or <code>DENY</code>
+	 */
+	public int evaluateHangingEntity(int worldId, int source) {
+		WorldSettings settings = settingsSource.getSettings(worldId);
+		switch (source) {
+		case SOURCE_MOB:
+			return deny(!settings.isHangingMobDamage());
+		case SOURCE_EXPLOSION:
+			return deny(settings.isExplosionProtectAll()
+					|| (settings.isExplosionEnable()
+							&& !settings.isExplosionDamageBlocks()));
+		case SOURCE_FIRE:
+			return deny(settings.isIgniteEnable()
+					&& !settings.isIgniteDestroy());
+		default:
+			return ALLOW;
+		}
+	}
+
+	/**
+	 * Common decision for ignitions caused by a player using an item.
+	 * 
+	 * @param allowedForAll
+	 *            whether the item may be used by everyone
+	 * @param permission
+	 *            the <code>PERM_</code> bit that allows using the item
+	 * @param fireproof
+	 *            whether the block is fireproof
+	 * @param permissions
+	 *            the permissions of the player
+	 * @return the decision
+	 */
+	private static int playerIgnition(boolean allowedForAll, int permission,
+			boolean fireproof, int permissions) {
+		if (!allowedForAll && (permissions & permission) == 0) {
+			// player may not ignite blocks with this item
+			return DENY_PERMISSION;
+		}
+		if (fireproof && (permissions & PERM_FIREPROOF) == 0) {
+			// fireproof block must not be ignited by player
+			return DENY_FIREPROOF;
+		}
+		return ALLOW;
+	}
+
+	private static void keepBlocks(int blockId, int[] blockIds, int count,
+			BitSet keep) {
+		for (int i = 0; i < count; ++i) {
+			if (blockIds[i] == blockId) {
+				keep.set(i);
+			}
+		}
+	}
+
+	private static void keepBlocksExcept(int blockId, int[] blockIds,
+			int count, BitSet keep) {
+		for (int i = 0; i < count; ++i) {
+			if (blockIds[i] != blockId) {
+				keep.set(i);
+			}
+		}
+	}
+
+	private static int deny(boolean deny) {
+		return deny ? DENY : ALLOW;
+	}
+}
@@ -0,0 +1,18 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+/**
+ * Notified when a <code>WorldSettingsSource</code> drops the settings of a
+ * world, so that anything derived from them can be dropped as well.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public interface SettingsReleaseListener {
+	/**
+	 * Called after the settings of a world have been dropped.
+	 * 
+	 * @param worldId
+	 *            the world ID
+	 */
+	public void settingsReleased(int worldId);
+}
@@ -0,0 +1,247 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+/**
+ * The protection settings of a single world, resolved from the properties
+ * into plain fields so that <code>ProtectionEngine</code> can evaluate
+ * events without touching the properties or the server API.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public class WorldSettings {
+	private boolean igniteEnable;
+	private boolean igniteDestroy = true;
+	private boolean igniteLava = true;
+	private boolean igniteFlintAndSteel = true;
+	private boolean igniteFireCharge = true;
+	private boolean igniteFireSpread = true;
+	private boolean igniteLightning = true;
+	private boolean igniteFireball = true;
+	private final BlockIdSet fireproofBlocks = new BlockIdSet();
+	private boolean liquidEnable;
+	private final BlockIdSet liquidBlocks = new BlockIdSet();
+	private boolean liquidProtectAll;
+	private boolean igniteStopSpread;
+	private boolean explosionEnable;
+	private boolean explosionDamageBlocks = true;
+	private boolean explosionCascadeTnt = true;
+	private boolean explosionStopCascade;
+	private boolean explosionProtectAll;
+	private boolean hangingMobDamage = true;
+
+	/**
+	 * Creates settings with the default values of all keys.
+	 */
+	public WorldSettings() {
+	}
+
+	/**
+	 * Copy constructor
+	 * 
+	 * @param other
+	 *            the settings to copy
+	 */
+	public WorldSettings(WorldSettings other) {
+		this.igniteEnable = other.igniteEnable;
+		this.igniteDestroy = other.igniteDestroy;
+		this.igniteLava = other.igniteLava;
+		this.igniteFlintAndSteel = other.igniteFlintAndSteel;
+		this.igniteFireCharge = other.igniteFireCharge;
+		this.igniteFireSpread = other.igniteFireSpread;
+		this.igniteLightning = other.igniteLightning;
+		this.igniteFireball = other.igniteFireball;
+		this.fireproofBlocks.copyFrom(other.fireproofBlocks);
+		this.liquidEnable = other.liquidEnable;
+		this.liquidBlocks.copyFrom(other.liquidBlocks);
+		this.liquidProtectAll = other.liquidProtectAll;
+		this.igniteStopSpread = other.igniteStopSpread;
+		this.explosionEnable = other.explosionEnable;
+		this.explosionDamageBlocks = other.explosionDamageBlocks;
+		this.explosionCascadeTnt = other.explosionCascadeTnt;
+		this.explosionStopCascade = other.explosionStopCascade;
+		this.explosionProtectAll = other.explosionProtectAll;
+		this.hangingMobDamage = other.hangingMobDamage;
+	}
+
+	public boolean isIgniteEnable() {
+		return igniteEnable;
+	}
+
+	public void setIgniteEnable(boolean igniteEnable) {
+		this.igniteEnable = igniteEnable;
+	}
+
+	public boolean isIgniteDestroy() {
+		return igniteDestroy;
+	}
+
+	public void setIgniteDestroy(boolean igniteDestroy) {
+		this.igniteDestroy = igniteDestroy;
+	}
+
+	public boolean isIgniteLava() {
+		return igniteLava;
+	}
+
+	public void setIgniteLava(boolean igniteLava) {
+		this.igniteLava = igniteLava;
+	}
+
+	public boolean isIgniteFlintAndSteel() {
+		return igniteFlintAndSteel;
+	}
+
+	public void setIgniteFlintAndSteel(boolean igniteFlintAndSteel) {
+		this.igniteFlintAndSteel = igniteFlintAndSteel;
+	}
+
+	public boolean isIgniteFireCharge() {
+		return igniteFireCharge;
+	}
+
+	public void setIgniteFireCharge(boolean igniteFireCharge) {
+		this.igniteFireCharge = igniteFireCharge;
+	}
+
+	public boolean isIgniteFireSpread() {
+		return igniteFireSpread;
+	}
+
+	public void setIgniteFireSpread(boolean igniteFireSpread) {
+		this.igniteFireSpread = igniteFireSpread;
+	}
+
+	public boolean isIgniteLightning() {
+		return igniteLightning;
+	}
+
+	public void setIgniteLightning(boolean igniteLightning) {
+		this.igniteLightning = igniteLightning;
+	}
+
+	public boolean isIgniteFireball() {
+		return igniteFireball;
+	}
+
+	public void setIgniteFireball(boolean igniteFireball) {
+		this.igniteFireball = igniteFireball;
+	}
+
+	/**
+	 * Gets the set of block IDs that must not be set on fire or burnt.
+	 * 
+	 * @return the live set, may be modified
+	 */
+	public BlockIdSet getFireproofBlocks() {
+		return fireproofBlocks;
+	}
+
+	public boolean isLiquidEnable() {
+		return liquidEnable;
+	}
+
+	public void setLiquidEnable(boolean liquidEnable) {
+		this.liquidEnable = liquidEnable;
+	}
+
+	/**
+	 * Gets the set of block IDs that must not be destroyed by liquids.
+	 * 
+	 * @return the live set, may be modified
+	 */
+	public BlockIdSet getLiquidBlocks() {
+		return liquidBlocks;
+	}
+
+	/**
+	 * Whether liquids may not destroy any block, regardless of
+	 * <code>isLiquidEnable</code> and <code>getLiquidBlocks</code>. Not a
+	 * property; set by <code>GovernedSettings</code> under heavy load.
+	 * 
+	 * @return true if all blocks are protected from liquids
+	 */
+	public boolean isLiquidProtectAll() {
+		return liquidProtectAll;
+	}
+
+	public void setLiquidProtectAll(boolean liquidProtectAll) {
+		this.liquidProtectAll = liquidProtectAll;
+	}
+
+	/**
+	 * Whether fire may not spread, regardless of <code>isIgniteEnable</code>
+	 * and the other ignite settings. Not a property; set by
+	 * <code>GovernedSettings</code> under load.
+	 * 
+	 * @return true if fire spread is denied
+	 */
+	public boolean isIgniteStopSpread() {
+		return igniteStopSpread;
+	}
+
+	public void setIgniteStopSpread(boolean igniteStopSpread) {
+		this.igniteStopSpread = igniteStopSpread;
+	}
+
+	public boolean isExplosionEnable() {
+		return explosionEnable;
+	}
+
+	public void setExplosionEnable(boolean explosionEnable) {
+		this.explosionEnable = explosionEnable;
+	}
+
+	public boolean isExplosionDamageBlocks() {
+		return explosionDamageBlocks;
+	}
+
+	public void setExplosionDamageBlocks(boolean explosionDamageBlocks) {
+		this.explosionDamageBlocks = explosionDamageBlocks;
+	}
+
+	public boolean isExplosionCascadeTnt() {
+		return explosionCascadeTnt;
+	}
+
+	public void setExplosionCascadeTnt(boolean explosionCascadeTnt) {
+		this.explosionCascadeTnt = explosionCascadeTnt;
+	}
+
+	/**
+	 * Whether explosions may not set off TNT blocks, regardless of
+	 * <code>isExplosionEnable</code> and the other explosion settings. Not a
+	 * property; set by <code>GovernedSettings</code> under load.
+	 * 
+	 * @return true if TNT blocks are removed from all explosions
+	 */
+	public boolean isExplosionStopCascade() {
+		return explosionStopCascade;
+	}
+
+	public void setExplosionStopCascade(boolean explosionStopCascade) {
+		this.explosionStopCascade = explosionStopCascade;
+	}
+
+	/**
+	 * Whether explosions may not destroy any block, regardless of
+	 * <code>isExplosionEnable</code> and the other explosion settings. Not a
+	 * property; set by <code>GovernedSettings</code> under heavy load.
+	 * 
+	 * @return true if all blocks are protected from explosions
+	 */
+	public boolean isExplosionProtectAll() {
+		return explosionProtectAll;
+	}
+
+	public void setExplosionProtectAll(boolean explosionProtectAll) {
+		this.explosionProtectAll = explosionProtectAll;
+	}
+
+	public boolean isHangingMobDamage() {
+		return hangingMobDamage;
+	}
+
+	public void setHangingMobDamage(boolean hangingMobDamage) {
+		this.hangingMobDamage = hangingMobDamage;
+	}
+}
@@ -0,0 +1,18 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+/**
+ * Supplies the resolved <code>WorldSettings</code> for a world ID.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public interface WorldSettingsSource {
+	/**
+	 * Gets the settings for a world.
+	 * 
+	 * @param worldId
+	 *            the world ID, as assigned by the implementation
+	 * @return the settings for that world, never null
+	 */
+	public WorldSettings getSettings(int worldId);
+}
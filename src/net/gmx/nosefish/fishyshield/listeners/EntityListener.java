@@ -1,6 +1,5 @@
 package net.gmx.nosefish.fishyshield.listeners;
 
-import net.gmx.nosefish.fishylib.properties.Properties;
 import net.canarymod.api.DamageSource;
 import net.canarymod.api.DamageType;
 import net.canarymod.api.entity.Entity;
@@ -10,7 +9,8 @@ import net.canarymod.hook.HookHandler;
 import net.canarymod.hook.entity.HangingEntityDestroyHook;
 import net.canarymod.plugin.PluginListener;
 import net.gmx.nosefish.fishyshield.FishyShield;
-import net.gmx.nosefish.fishyshield.properties.Key;
+import net.gmx.nosefish.fishyshield.engine.ProtectionEngine;
+import net.gmx.nosefish.fishyshield.properties.WorldSettingsCache;
 
 
 /**
@@ -26,7 +26,8 @@ import net.gmx.nosefish.fishyshield.properties.Key;
  * 
  */
 public class EntityListener implements PluginListener {
-	private final Properties properties;
+	private final WorldSettingsCache worldSettings;
+	private final ProtectionEngine engine;
 
 	/**
 	 * Constructor
@@ -35,7 +36,8 @@ public class EntityListener implements PluginListener {
 	 *            the plugin instantiating this <code>PluginListener</code>
 	 */
 	public EntityListener(FishyShield fishyShield) {
-		this.properties = fishyShield.getProperties();
+		this.worldSettings = fishyShield.getWorldSettings();
+		this.engine = fishyShield.getProtectionEngine();
 	}
 
 	@HookHandler
@@ -47,11 +49,29 @@ public class EntityListener implements PluginListener {
 		DamageSource damageSource = hook.getDamageSource();
 
 		FishyShield.logger.warn("onHangingEntity called");
+		int source = getSource(damageSource);
+		if (engine.evaluateHangingEntity(worldSettings.getWorldId(world),
+				source) != ProtectionEngine.ALLOW) {
+			FishyShield.logger.debug("Destruction of HangingEntity by "
+					+ damageSource.getNativeName() + " blocked.");
+			hook.setCanceled(); // block
+		}
+	}
+
+	/**
+	 * Classifies the source of damage to a <code>HangingEntity</code> for the
+	 * <code>ProtectionEngine</code>.
+	 * 
+	 * @param damageSource
+	 *            the damage source, may be null
+	 * @return one of the <code>ProtectionEngine.SOURCE_</code> constants
+	 */
+	private int getSource(DamageSource damageSource) {
 		if (damageSource == null) {
 			// the block it's hanging on was destroyed
 			FishyShield.logger.debug("HangingEntity destroyed: null source");
 			// TODO: we're allowing this, but should we?
-			return;
+			return ProtectionEngine.SOURCE_NONE;
 		}
 		Entity damageSourceEntity = damageSource.getDamageDealer();
 
@@ -62,27 +82,15 @@ public class EntityListener implements PluginListener {
 				// players may break it
 				FishyShield.logger.debug("HangingEntity destroyed by player "
 						+ ((Player)damageSourceEntity).getName());
-				//allow
-			} else if (!properties.getBoolean(world,
-					Key.ENTITY_HANGING_MOBDAMAGE)) {
-				// a mob damaged it, and it's protected
-				FishyShield.logger.debug("Destruction of HangingEntity by "
-						+ damageSource.getNativeName() + " blocked.");
-				hook.setCanceled(); // block
+				return ProtectionEngine.SOURCE_PLAYER;
 			}
-		} else if (damageSource.getDamagetype().equals(DamageType.EXPLOSION)
-				&& properties.getBoolean(world, Key.EXPLOSION_ENABLE)
-				&& !properties.getBoolean(world, Key.EXPLOSION_DAMAGEBLOCKS)) {
-			FishyShield.logger.debug("Destruction of HangingEntity by "
-					+ damageSource.getNativeName() + " blocked.");
-			hook.setCanceled(); // block
-		}else if (damageSource.isFireDamage()
-				&& properties.getBoolean(world, Key.IGNITE_ENABLE)
-				&& !properties.getBoolean(world, Key.IGNITE_DESTROY)) {
-			FishyShield.logger.debug("Destruction of HangingEntity by "
-					+ damageSource.getNativeName() + " blocked.");
-			hook.setCanceled(); // block
+			return ProtectionEngine.SOURCE_MOB;
+		} else if (damageSource.getDamagetype().equals(DamageType.EXPLOSION)) {
+			return ProtectionEngine.SOURCE_EXPLOSION;
+		} else if (damageSource.isFireDamage()) {
+			return ProtectionEngine.SOURCE_FIRE;
 		}
+		return ProtectionEngine.SOURCE_OTHER;
 	}
 
 }
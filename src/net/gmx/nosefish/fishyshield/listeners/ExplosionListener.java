@@ -1,32 +1,40 @@
 package net.gmx.nosefish.fishyshield.listeners;
-import java.util.LinkedList;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
-
-import net.gmx.nosefish.fishylib.properties.Properties;
+import java.util.RandomAccess;
 
 import net.canarymod.api.entity.Entity;
 import net.canarymod.api.entity.TNTPrimed;
 import net.canarymod.api.entity.WitherSkull;
 import net.canarymod.api.entity.living.monster.Creeper;
 import net.canarymod.api.entity.vehicle.TNTMinecart;
-import net.canarymod.api.world.World;
 import net.canarymod.api.world.blocks.Block;
-import net.canarymod.api.world.blocks.BlockType;
 import net.canarymod.hook.HookHandler;
 import net.canarymod.hook.world.ExplosionHook;
 import net.canarymod.plugin.PluginListener;
 import net.gmx.nosefish.fishyshield.FishyShield;
-import net.gmx.nosefish.fishyshield.properties.Key;
+import net.gmx.nosefish.fishyshield.engine.ProtectionEngine;
+import net.gmx.nosefish.fishyshield.properties.WorldSettingsCache;
 
 
 /**
  * A <code>PluginListener</code> that protects blocks from explosion damage.
+ * <p>
+ * The affected blocks of an explosion are passed to the
+ * <code>ProtectionEngine</code> in one batch, and the blocks it does not keep
+ * are removed from the explosion.
  * 
  * @author Stefan Steinheimer (nosefish)
  * 
  */
 public class ExplosionListener implements PluginListener {
-	private final Properties properties;
+	private final WorldSettingsCache worldSettings;
+	private final ProtectionEngine engine;
+
+	// reused between explosions, hooks are fired on the server thread only
+	private int[] blockIds = new int[256];
+	private final BitSet keep = new BitSet(256);
 
 	/**
 	 * Constructor
@@ -35,137 +43,105 @@ public class ExplosionListener implements PluginListener {
 	 *            the plugin instantiating this <code>PluginListener</code>
 	 */
 	public ExplosionListener(FishyShield fishyShield) {
-		properties = fishyShield.getProperties();
+		worldSettings = fishyShield.getWorldSettings();
+		engine = fishyShield.getProtectionEngine();
 	}
 
-	
+
 	@HookHandler
 	public void onExplosion(ExplosionHook hook) {
 		Block block = hook.getBlock();
-		World world = block.getWorld();
-		if (!properties.getBoolean(world, Key.EXPLOSION_ENABLE)) {
-			return;
-		}
-		Entity entity = hook.getEntity();
+		int worldId = worldSettings.getWorldId(block.getWorld());
+		ExplosionType explosionType = ExplosionType.getExplosionType(hook
+				.getEntity());
 		List<Block> blocksaffected = hook.getAffectedBlocks();
-		ExplosionType explosionType = ExplosionType.getExplosionType(entity);
-		FishyShield.logger.debug("Explosion: " + explosionType);
-		switch (explosionType) {
-		case TNT:
-			onTNTExplosion(world, entity, blocksaffected);
-			break;
-		case CREEPER:
-			onCreeperExplosion(world, blocksaffected);
-			break;
-		case GHAST:
-			onGhastFireballExplosion(world, blocksaffected);
+		int count = blocksaffected.size();
+		if (blockIds.length < count) {
+			blockIds = new int[Math.max(count, blockIds.length * 2)];
+		}
+		if (blocksaffected instanceof RandomAccess) {
+			// no iterator
+			for (int i = 0; i < count; ++i) {
+				blockIds[i] = blocksaffected.get(i).getTypeId();
+			}
+		} else {
+			int i = 0;
+			for (Block affectedBlock : blocksaffected) {
+				blockIds[i++] = affectedBlock.getTypeId();
+			}
+		}
+		int result = engine.evaluateExplosion(worldId, explosionType.getCode(),
+				blockIds, count, keep);
+		switch (result) {
+		case ProtectionEngine.EXPLOSION_FILTERED:
+			retainBlocks(blocksaffected);
 			break;
-		case WITHER:
-			onWitherSkullExplosion(world, blocksaffected);
+		case ProtectionEngine.EXPLOSION_CANCELED:
+			FishyShield.logger.debug("Blocked unknown explosion");
+			hook.setCanceled(); // block unknown explosions just to be safe.
 			break;
 		default:
-			hook.setCanceled(); // block unknown explosions just to be safe.
+			break;
 		}
 		// always allow the explosion after we've handled it, to keep the other
 		// effects,
 		// like fire, or damage to entities.
 	}
-	
-
 
 	/**
-	 * Handles TNT damage.
+	 * Removes all blocks from the list that the <code>ProtectionEngine</code>
+	 * did not keep.
 	 * <p>
-	 * Depending on configuration, even if block damage is disabled, it may
-	 * still set off nearby TNT blocks.
+	 * Lists with random access are compacted in place and shortened from the
+	 * end, which neither allocates an iterator nor shifts the remaining
+	 * blocks once per removed block.
 	 * 
-	 * @param world
-	 *            the world in which the TNT is exploding
 	 * @param blocksaffected
-	 *            the blocks that will be affected by the explosion. Can be
-	 *            modified by this method.
+	 *            the blocks that will be affected by the explosion
 	 */
-	private void onTNTExplosion(World world, Entity entity,
-			List<Block> blocksaffected) {
-		if (!properties.getBoolean(world, Key.EXPLOSION_DAMAGEBLOCKS)) {
-			if (properties.getBoolean(world, Key.EXPLOSION_CASCADETNT)) {
-				// allow cascading TNT explosions
-				List<Block> tntBlocks = new LinkedList<>();
-				for (Block affectedBlock : blocksaffected) {
-					if (affectedBlock.getType().equals(BlockType.Tnt)) {
-						tntBlocks.add(affectedBlock);
-					}
-				}
-				blocksaffected.clear();
-				blocksaffected.addAll(tntBlocks);
-			} else {
-				// prevent all block damage
-				blocksaffected.clear();
+	private void retainBlocks(List<Block> blocksaffected) {
+		if (keep.isEmpty()) {
+			blocksaffected.clear();
+			return;
+		}
+		int count = blocksaffected.size();
+		if (blocksaffected instanceof RandomAccess) {
+			int kept = 0;
+			for (int i = keep.nextSetBit(0); i >= 0 && i < count; i = keep
+					.nextSetBit(i + 1)) {
+				blocksaffected.set(kept++, blocksaffected.get(i));
+			}
+			for (int i = count - 1; i >= kept; --i) {
+				blocksaffected.remove(i);
 			}
+			return;
 		}
-	}
-
-	/**
-	 * Handles creeper damage.
-	 * 
-	 * @param world
-	 *            the world in which the creeper is exploding
-	 * @param blocksaffected
-	 *            the blocks that will be affected by the explosion. Can be
-	 *            modified by this method.
-	 */
-	@SuppressWarnings({ "rawtypes" })
-	private void onCreeperExplosion(World world, List blocksaffected) {
-		if (!properties.getBoolean(world, Key.EXPLOSION_DAMAGEBLOCKS)) {
-			blocksaffected.clear();
+		int i = 0;
+		for (Iterator<Block> it = blocksaffected.iterator(); it.hasNext(); ++i) {
+			it.next();
+			if (!keep.get(i)) {
+				it.remove();
+			}
 		}
 	}
 
-	/**
-	 * Handles ghast fireball damage.
-	 * <p>
-	 * Even if block damage is disabled, the fireball may still start fires.
-	 * 
-	 * @param world
-	 *            the world in which the ghast fireball is exploding
-	 * @param blocksaffected
-	 *            the blocks that will be affected by the explosion. Can be
-	 *            modified by this method.
-	 */
-	private void onGhastFireballExplosion(World world, List<Block> blocksaffected) {
-		if (!properties.getBoolean(world, Key.EXPLOSION_DAMAGEBLOCKS)) {
-			// Air blocks stay affected to allow fireballs to start fires and
-			// let FS_IgniteListener handle that.
-			List<Block> airBlocks = new LinkedList<>();
-			for (Block affectedBlock : blocksaffected) {
-					if (affectedBlock.getType().equals(BlockType.Air)) {
-						airBlocks.add(affectedBlock);
-					}
-			}
-			blocksaffected.clear();
-			blocksaffected.addAll(airBlocks);
+	private static enum ExplosionType {
+		UNKNOWN(ProtectionEngine.EXPLOSION_UNKNOWN),
+		TNT(ProtectionEngine.EXPLOSION_TNT),
+		CREEPER(ProtectionEngine.EXPLOSION_CREEPER),
+		GHAST(ProtectionEngine.EXPLOSION_GHAST),
+		WITHER(ProtectionEngine.EXPLOSION_WITHER);
+
+		private final int code;
+
+		private ExplosionType(int code) {
+			this.code = code;
 		}
-	}
 
-	/**
-	 * Handles wither skull damage.
-	 * 
-	 * @param world
-	 *            the world in which the wither skull is exploding
-	 * @param blocksaffected
-	 *            the blocks that will be affected by the explosion. Can be
-	 *            modified by this method.
-	 */
-	@SuppressWarnings({ "rawtypes" })
-	private void onWitherSkullExplosion(World world, List blocksaffected) {
-		if (!properties.getBoolean(world, Key.EXPLOSION_DAMAGEBLOCKS)) {
-			blocksaffected.clear();
+		public int getCode() {
+			return code;
 		}
-	}
 
-	private static enum ExplosionType {
-		UNKNOWN, TNT, CREEPER, GHAST, WITHER;
-		
 		public static ExplosionType getExplosionType(Entity entity) {
 			if (entity == null) return GHAST;
 			if (entity instanceof Creeper) return CREEPER;
@@ -17,18 +17,27 @@ import net.canarymod.plugin.PluginListener;
 import net.canarymod.tasks.ServerTask;
 import net.canarymod.tasks.ServerTaskManager;
 import net.gmx.nosefish.fishyshield.FishyShield;
+import net.gmx.nosefish.fishyshield.engine.ProtectionEngine;
 import net.gmx.nosefish.fishyshield.properties.Key;
+import net.gmx.nosefish.fishyshield.properties.WorldSettingsCache;
 
 
 /**
  * A <code>PluginListener</code> that protects blocks from fire damage.
+ * <p>
+ * The decisions are made by the <code>ProtectionEngine</code>; this listener
+ * translates the hooks and carries out the side effects (messages,
+ * extinguishing fire, allowing portals).
  * 
  * @author Stefan Steinheimer (nosefish)
  * 
  */
 public class FireListener implements PluginListener {
+	private static final int[][] FACES = {{0,1,0},{0,-1,0},{1,0,0},{-1,0,0},{0,0,1},{0,0,-1}};
+	private static final int[][] SIDES = {{1,0,0},{-1,0,0},{0,0,1},{0,0,-1}};
 
-	private final Properties properties;
+	private final WorldSettingsCache worldSettings;
+	private final ProtectionEngine engine;
 
 	private final Set<Location> portalAllowed;
 	private final FishyShield plugin;
@@ -41,12 +50,20 @@ public class FireListener implements PluginListener {
 	 */
 	public FireListener(FishyShield plugin) {
 		this.plugin = plugin;
-		this.properties = plugin.getProperties();
+		this.worldSettings = plugin.getWorldSettings();
+		this.engine = plugin.getProtectionEngine();
 		this.portalAllowed = new HashSet<>(16, 0.9F);
 	}
 
 	@HookHandler
 	public void onPortalCreate(PortalCreateHook hook) {
+		if (portalAllowed.isEmpty()) {
+			// nobody has lit a fire on obsidian recently, no need to look up
+			// the location of every block
+			FishyShield.logger.debug("Blocked portal creation");
+			hook.setCanceled();
+			return;
+		}
 		Block[][]blocks = hook.getBlockSet();
 		// allow only players to create portals. Blocks that have been lit
 		// by players with permission are in portalAllowed
@@ -65,266 +82,111 @@ public class FireListener implements PluginListener {
 	@HookHandler
 	public void onIgnite(IgnitionHook hook) {
 		Block block = hook.getBlock();
-		if (!properties.getBoolean(block.getWorld(), Key.IGNITE_ENABLE)) {
-			return;
+		World world = block.getWorld();
+		int worldId = worldSettings.getWorldId(world);
+		int cause = getCause(hook);
+		Player player = null;
+		int permissions = ProtectionEngine.PERM_NONE;
+		if (cause == ProtectionEngine.CAUSE_FLINT_AND_STEEL
+				|| cause == ProtectionEngine.CAUSE_FIRECHARGE) {
+			player = hook.getPlayer();
+			permissions = getPermissions(block, player);
 		}
-		boolean deny;
-		switch (hook.getCause()) {
-		case LAVA:
-			deny = blockLavaIgnite(block);
-			break;
-		case FLINT_AND_STEEL:
-			deny = blockFlintAndSteelIgnite(block, hook.getPlayer());
-			break;
-		case FIRE_SPREAD:
-			deny = blockFireSpreadIgnite(block);
-			break;
-		case BURNT:
-			deny = blockFireDestruction(block);
-			break;
-		case LIGHTNING_STRIKE:
-			deny = blockLightningIgnite(block);
-			break;
-		case FIREBALL_CLICK:
-			deny = blockFireChargeUseIgnite(block, hook.getPlayer());
+		int decision = engine.evaluateIgnition(worldId, block.getTypeId(),
+				cause, permissions);
+		switch (decision) {
+		case ProtectionEngine.ALLOW:
+			if (player != null
+					&& worldSettings.getSettings(worldId).isIgniteEnable()) {
+				allowLightPortal(block);
+			}
+			return;
+		case ProtectionEngine.DENY_PERMISSION:
+			player.message(Colors.RED
+					+ plugin.getProperties().getString(world,
+							cause == ProtectionEngine.CAUSE_FLINT_AND_STEEL
+									? Key.IGNITE_FLINTANDSTEEL_MESSAGE
+									: Key.IGNITE_FIRECHARGE_MESSAGE));
 			break;
-		case FIREBALL_HIT:
-			deny = blockFireballIgnite(block);
+		case ProtectionEngine.DENY_FIREPROOF:
+			player.message(Colors.RED
+					+ plugin.getProperties().getString(world,
+							Key.IGNITE_FIREPROOF_MESSAGE));
 			break;
 		default:
-			FishyShield.logger.debug("Unknown fire source blocked: " + hook.getCause());
-			deny = true; // whatever other fire source there may be in the future, block it
-			break;
-		}
-		if (deny) {
-			hook.setCanceled();
-		}
-	}
-
-	/**
-	 * Handles blocks being set on fire by lava.
-	 * <p>
-	 * Called by <code>onIgnite.</code>
-	 * 
-	 * @param block
-	 *            the block that will be made a fire block unless denied
-	 * @return true to deny, false to allow
-	 */
-	private boolean blockLavaIgnite(Block block) {
-		return !properties.getBoolean(block.getWorld(), Key.IGNITE_LAVA)
-				|| fireIsOnFireproofBlock(block);
-	}
-
-	/**
-	 * Handles blocks being set on fire by a player using flint&steel.
-	 * <p>
-	 * Called by <code>onIgnite.</code>
-	 * 
-	 * @param block
-	 *            the block that will be made a fire block unless denied
-	 * @return true to deny, false to allow
-	 */
-	private boolean blockFlintAndSteelIgnite(Block block, Player player) {
-		World world = block.getWorld();
-		boolean denyPermission;
-		boolean denyFireproof;
-		FishyShield.logger.debug(player.getName() + " used flint&steel");
-		if (properties.getBoolean(world, Key.IGNITE_FLINTANDSTEEL)) {
-			// flint&steel is allowed for everyone
-			if (fireIsOnFireproofBlock(block)) {
-				if (properties.hasPermission(Key.IGNITE_FIREPROOF_PERM, player,
-						Integer.valueOf(block.getRelative(0, -1, 0).getTypeId()))) {
-					// player may even set fireproof blocks on fire
-					denyPermission = false;
-					denyFireproof = false;
-				} else {
-					// fireproof block must not be ignited by player
-					denyPermission = false;
-					denyFireproof = true;
+			if (cause == ProtectionEngine.CAUSE_BURNT) {
+				// destruction denied, remove the fire attached to this block
+				extinguishBlock(block);
+				if (engine.recordBurnDenied(worldId, block.getX(),
+						block.getY(), block.getZ())) {
+					// some fire keeps burning the block, remove all of it
+					retireFire(block);
 				}
-			} else {
-				// flint&steel use is permitted, block is not fireproof
-				denyPermission = false;
-				denyFireproof = false;
 			}
-		} else if (properties.hasPermission(Key.IGNITE_FLINTANDSTEEL_PERM,
-				player)) {
-			// flint & steel needs permission
-			if (fireIsOnFireproofBlock(block)) {
-				if (properties.hasPermission(Key.IGNITE_FIREPROOF_PERM, player,
-						Integer.valueOf(block.getRelative(0, -1, 0).getTypeId()))) {
-					// player may even set fireproof blocks on fire
-					denyPermission = false;
-					denyFireproof = false;
-				} else {
-					// fireproof block must not be ignited by player
-					denyPermission = false;
-					denyFireproof = true;
-				}
-			} else {
-				// player is allowed to use flint&steel, block may be set on
-				// fire
-				denyPermission = false;
-				denyFireproof = false;
-			}
-		} else {
-			// player may not ignite blocks with flint&steel
-			denyPermission = true;
-			denyFireproof = false;
-		}
-		if (denyPermission) {
-			player.message(Colors.RED
-					+ properties.getString(world,
-							Key.IGNITE_FLINTANDSTEEL_MESSAGE));
-		} else if (denyFireproof) {
-			player.message(Colors.RED
-					+ properties.getString(world, Key.IGNITE_FIREPROOF_MESSAGE));
-		}
-		boolean deny = denyPermission || denyFireproof;
-		if (!deny) {
-			allowLightPortal(block);
+			break;
 		}
-		return deny;
-	}
-
-	/**
-	 * Handles blocks being set on fire by fire spreading.
-	 * <p>
-	 * Called by <code>onIgnite.</code>
-	 * 
-	 * @param block
-	 *            the block that will be made a fire block unless denied
-	 * @return true to deny, false to allow
-	 */
-	private boolean blockFireSpreadIgnite(Block block) {
-		return !properties.getBoolean(block.getWorld(), Key.IGNITE_FIRESPREAD)
-				|| fireIsOnFireproofBlock(block);
+		hook.setCanceled();
 	}
 
 	/**
-	 * Handles blocks being destroyed by fire.
-	 * <p>
-	 * Called by <code>onIgnite.</code>
-	 * <p>
-	 * If destruction is denied, the fire attached to this block is removed.
+	 * Translates the cause of an <code>IgnitionHook</code> for the
+	 * <code>ProtectionEngine</code>.
 	 * 
-	 * @param block
-	 *            the block that will be destroyed unless denied
-	 * @return true to deny, false to allow
+	 * @param hook
+	 *            the hook
+	 * @return one of the <code>ProtectionEngine.CAUSE_</code> constants
 	 */
-	private boolean blockFireDestruction(Block block) {
-		if (!properties.getBoolean(block.getWorld(), Key.IGNITE_DESTROY)
-				|| fireIsOnFireproofBlock(block)) {
-			extinguishBlock(block);
-			return true;
-		} else {
-			return false;
+	private int getCause(IgnitionHook hook) {
+		switch (hook.getCause()) {
+		case LAVA:
+			return ProtectionEngine.CAUSE_LAVA;
+		case FLINT_AND_STEEL:
+			return ProtectionEngine.CAUSE_FLINT_AND_STEEL;
+		case FIRE_SPREAD:
+			return ProtectionEngine.CAUSE_FIRE_SPREAD;
+		case BURNT:
+			return ProtectionEngine.CAUSE_BURNT;
+		case LIGHTNING_STRIKE:
+			return ProtectionEngine.CAUSE_LIGHTNING;
+		case FIREBALL_CLICK:
+			return ProtectionEngine.CAUSE_FIRECHARGE;
+		case FIREBALL_HIT:
+			return ProtectionEngine.CAUSE_FIREBALL;
+		default:
+			FishyShield.logger.debug("Unknown fire source blocked: " + hook.getCause());
+			return ProtectionEngine.CAUSE_UNKNOWN;
 		}
 	}
 
 	/**
-	 * Handles blocks being set on fire by lightning.
-	 * <p>
-	 * Called by <code>onIgnite.</code>
-	 * 
-	 * @param block
-	 *            the block that will be made a fire block unless denied
-	 * @return true to deny, false to allow
-	 */
-	private boolean blockLightningIgnite(Block block) {
-		return !properties.getBoolean(block.getWorld(), Key.IGNITE_LIGHTNING)
-				|| fireIsOnFireproofBlock(block);
-	}
-
-	/**
-	 * Handles blocks being set on fire by a fireball (Ghast, Blaze, firecharge
-	 * fired by dispenser).
-	 * <p>
-	 * Called by <code>onIgnite.</code>
-	 * 
-	 * @param block
-	 *            the block that will be made a fire block unless denied
-	 * @return true to deny, false to allow
-	 */
-	private boolean blockFireballIgnite(Block block) {
-		return !properties.getBoolean(block.getWorld(), Key.IGNITE_FIREBALL)
-				|| fireIsOnFireproofBlock(block);
-	}
-
-	/**
-	 * Handles blocks being set on fire by a player right-clicking with a fire
-	 * charge.
-	 * <p>
-	 * Called by <code>onIgnite.</code>
+	 * Collects the fire-related permissions of a player for the
+	 * <code>ProtectionEngine</code>.
 	 * 
 	 * @param block
-	 *            the block that will be made a fire block unless denied
-	 * @return true to deny, false to allow
+	 *            the block the player is trying to set on fire
+	 * @param player
+	 *            the player
+	 * @return the <code>ProtectionEngine.PERM_</code> bits held by the player
 	 */
-	private boolean blockFireChargeUseIgnite(Block block, Player player) {
-		World world = block.getWorld();
-		boolean denyPermission = false;
-		boolean denyFireproof = false;
-		if (properties.getBoolean(world, Key.IGNITE_FIRECHARGE)) {
-			// firecharges is allowed for everyone
-			if (fireIsOnFireproofBlock(block)) {
-				if (properties.hasPermission(Key.IGNITE_FIREPROOF_PERM, player,
-						Integer.valueOf(block.getRelative(0, -1, 0).getTypeId()))) {
-					// player may even set fireproof blocks on fire
-					denyPermission = false;
-					denyFireproof = false;
-				} else {
-					// fireproof block must not be ignited by player
-					denyPermission = false;
-					denyFireproof = true;
-				}
-			} else {
-				// firecharge use is permitted, block is not fireproof
-				denyPermission = false;
-				denyFireproof = false;
-			}
-		} else if (properties.hasPermission(Key.IGNITE_FIRECHARGE_PERM, player)) {
-			// firecharges need permission
-			if (fireIsOnFireproofBlock(block)) {
-				if (properties.hasPermission(Key.IGNITE_FIREPROOF_PERM, player,
-						Integer.valueOf(block.getRelative(0, -1, 0).getTypeId()))) {
-					// player may even set fireproof blocks on fire
-					denyPermission = false;
-					denyFireproof = false;
-				} else {
-					// fireproof block must not be ignited by player
-					denyPermission = false;
-					denyFireproof = true;
-				}
-			} else {
-				// player is allowed to use firecharges, block may be set on
-				// fire
-				denyPermission = false;
-				denyFireproof = false;
-			}
-		} else {
-			// player may not ignite blocks with firecharges
-			denyPermission = true;
-			denyFireproof = false;
+	private int getPermissions(Block block, Player player) {
+		Properties properties = plugin.getProperties();
+		int permissions = ProtectionEngine.PERM_NONE;
+		if (properties.hasPermission(Key.IGNITE_FLINTANDSTEEL_PERM, player)) {
+			permissions |= ProtectionEngine.PERM_FLINT_AND_STEEL;
 		}
-		if (denyPermission) {
-			player.message(Colors.RED
-					+ properties
-					.getString(world, Key.IGNITE_FIRECHARGE_MESSAGE));
-		} else if (denyFireproof) {
-			player.message(Colors.RED
-					+ properties.getString(world, Key.IGNITE_FIREPROOF_MESSAGE));
+		if (properties.hasPermission(Key.IGNITE_FIRECHARGE_PERM, player)) {
+			permissions |= ProtectionEngine.PERM_FIRECHARGE;
 		}
-		boolean deny = denyPermission || denyFireproof;
-		if (!deny) {
-			allowLightPortal(block);
+		if (properties.hasPermission(Key.IGNITE_FIREPROOF_PERM, player,
+				Integer.valueOf(block.getRelative(0, -1, 0).getTypeId()))) {
+			permissions |= ProtectionEngine.PERM_FIREPROOF;
 		}
-		return deny;
+		return permissions;
 	}
 
 	/**
 	 * Extinguishes all fire attached to a block. Called by
-	 * <code>blockFireDestruction</code>.
+	 * <code>onIgnite</code> when destruction by fire is denied.
 	 * 
 	 * @param block
 	 *            the block to extinguish
@@ -342,41 +204,50 @@ public class FireListener implements PluginListener {
 			fireBlock.update();
 		}
 		// fire on sides, no other block below fire
-		final int[][] offsets = {{1,0,0},{-1,0,0},{0,0,1},{0,0,-1}};
-		for (int[] offset : offsets) {
+		for (int[] offset : SIDES) {
 			fireBlock = block.getRelative(offset[0], offset[1], offset[2]);
-            if (fireBlock != null) {
-                belowFireBlock = fireBlock.getRelative(0, -1, 0);
-                if (belowFireBlock != null) {
-                    if (fireBlock.getTypeId() == FIRE && belowFireBlock.getTypeId() == AIR) {
-                        // Yes, I know this won't extinguish blocks on level 0.
-                        // There shouldn't be a flammable block at level 0 anyway,
-                        // so I don't care.
-                        fireBlock.setType(BlockType.Air);
-                        fireBlock.update();
-                    }
-                }
-            }
+			if (fireBlock == null || fireBlock.getTypeId() != FIRE) {
+				// no need to look at the block below
+				continue;
+			}
+			belowFireBlock = fireBlock.getRelative(0, -1, 0);
+			if (belowFireBlock != null && belowFireBlock.getTypeId() == AIR) {
+				// Yes, I know this won't extinguish blocks on level 0.
+				// There shouldn't be a flammable block at level 0 anyway,
+				// so I don't care.
+				fireBlock.setType(BlockType.Air);
+				fireBlock.update();
+			}
 		}
 	}
 	
 
 	/**
-	 * Checks whether a block to be ignited is fireproof.
+	 * Removes fire from every face of a protected block. Called by
+	 * <code>onIgnite</code> when the <code>ProtectionEngine</code> reports that
+	 * <code>extinguishBlock</code> did not get rid of the fire burning it.
 	 * <p>
-	 * Only works for fire on top of the block
+	 * <code>extinguishBlock</code> leaves fire that stands on another block,
+	 * because that fire might be burning an unprotected block. Once a fire has
+	 * been denied repeatedly, it is removed regardless.
 	 * 
 	 * @param block
-	 *            the potential fire block
-	 * @return true if the block below is configured as fireproof, false
-	 *         otherwise.
+	 *            the protected block
 	 */
-	private boolean fireIsOnFireproofBlock(Block block) {
-		if (block == null) {
-			return false;
+	private void retireFire(Block block) {
+		final short FIRE = BlockType.FireBlock.getId();
+		int removed = 0;
+		for (int[] face : FACES) {
+			Block fireBlock = block.getRelative(face[0], face[1], face[2]);
+			if (fireBlock != null && fireBlock.getTypeId() == FIRE) {
+				fireBlock.setType(BlockType.Air);
+				fireBlock.update();
+				++removed;
+			}
 		}
-		return properties.containsInteger(block.getWorld(),
-				Key.IGNITE_FIREPROOF, block.getType().getId());
+		FishyShield.logger.debug("Removed perpetual fire from " + removed
+				+ " faces of block at " + block.getX() + "," + block.getY()
+				+ "," + block.getZ());
 	}
 
 	/**
@@ -1,12 +1,11 @@
 package net.gmx.nosefish.fishyshield.listeners;
-import net.gmx.nosefish.fishylib.properties.Properties;
-import net.canarymod.api.world.World;
 import net.canarymod.api.world.blocks.Block;
 import net.canarymod.hook.HookHandler;
 import net.canarymod.hook.world.LiquidDestroyHook;
 import net.canarymod.plugin.PluginListener;
 import net.gmx.nosefish.fishyshield.FishyShield;
-import net.gmx.nosefish.fishyshield.properties.Key;
+import net.gmx.nosefish.fishyshield.engine.ProtectionEngine;
+import net.gmx.nosefish.fishyshield.properties.WorldSettingsCache;
 
 /**
  * A <code>PluginListener</code> that protects blocks from liquid damage.
@@ -15,7 +14,8 @@ import net.gmx.nosefish.fishyshield.properties.Key;
  * 
  */
 public class LiquidListener implements PluginListener {
-	private final Properties properties;
+	private final WorldSettingsCache worldSettings;
+	private final ProtectionEngine engine;
 
 	/**
 	 * Constructor
@@ -24,17 +24,17 @@ public class LiquidListener implements PluginListener {
 	 *            the plugin instantiating this <code>PluginListener</code>
 	 */
 	public LiquidListener(FishyShield fishyShield) {
-		this.properties = fishyShield.getProperties();
+		this.worldSettings = fishyShield.getWorldSettings();
+		this.engine = fishyShield.getProtectionEngine();
 	}
 
 	@HookHandler
 	public void onLiquidDestroy(LiquidDestroyHook hook) {
 		Block targetBlock = hook.getBlock();
-		World world = targetBlock.getWorld();
-		int id = targetBlock.getType().getId();
-		boolean isProtected = properties.getBoolean(world, Key.LIQUID_ENABLE)
-				&& properties.containsInteger(world, Key.LIQUID_BLOCKS, id);
-		if (isProtected) {
+		int decision = engine.evaluateLiquid(
+				worldSettings.getWorldId(targetBlock.getWorld()),
+				targetBlock.getTypeId());
+		if (decision != ProtectionEngine.ALLOW) {
 			hook.setCanceled();
 		}
 	}
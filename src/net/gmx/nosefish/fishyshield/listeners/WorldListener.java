@@ -0,0 +1,31 @@
+package net.gmx.nosefish.fishyshield.listeners;
+
+import net.canarymod.hook.HookHandler;
+import net.canarymod.hook.system.UnloadWorldHook;
+import net.canarymod.plugin.PluginListener;
+import net.gmx.nosefish.fishyshield.FishyShield;
+
+/**
+ * A <code>PluginListener</code> that releases the settings of unloaded worlds.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public class WorldListener implements PluginListener {
+	private final FishyShield plugin;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param plugin
+	 *            the plugin instantiating this <code>PluginListener</code>
+	 */
+	public WorldListener(FishyShield plugin) {
+		this.plugin = plugin;
+	}
+
+	@HookHandler
+	public void onWorldUnload(UnloadWorldHook hook) {
+		plugin.worldUnloaded(hook.getWorld());
+	}
+}
@@ -58,7 +58,11 @@ public enum Key implements PropertyKey{
 	EXPLOSION_CASCADETNT("explosion.cascade-tnt",
 			ValueType.BOOLEAN, true),
 	ENTITY_HANGING_MOBDAMAGE("entity.mobs-break-hanging-entities",
-			ValueType.BOOLEAN, true);
+			ValueType.BOOLEAN, true),
+	SHARED_DIRECTORY("shared.directory",
+			ValueType.STRING, ""),
+	SHARED_PUBLISH("shared.publish",
+			ValueType.BOOLEAN, false);
 	
 	private static Map<String, PropertyKey> map;
 	private String propertyName;
@@ -0,0 +1,407 @@
+package net.gmx.nosefish.fishyshield.properties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import net.gmx.nosefish.fishyshield.engine.BlockIdSet;
+import net.gmx.nosefish.fishyshield.engine.WorldSettings;
+
+/**
+ * A compiled, versioned snapshot of the protection settings of all worlds,
+ * shared between several servers through a common directory.
+ * <p>
+ * Exactly one server publishes its resolved settings as
+ * <code>fishyshield-&lt;sequence&gt;.fsc</code>. Every version gets a new file
+ * with a higher sequence number; files are written under a temporary name
+ * and renamed when complete, so readers never see a partial file. This only
+ * needs a plain directory, local or on a network file system. A version is
+ * only published if its settings differ from the latest one. Publishing is
+ * not exclusive: two servers publishing at the same time may overwrite each
+ * other's version.
+ * <p>
+ * File layout (big-endian):
+ * 
+ * <pre>
+ * int    magic "FSCF"
+ * int    format version
+ * long   sequence number
+ * int    number of world entries, including the default entry
+ * entry* name (UTF-8, length-prefixed short; "" is the default entry,
+ *        followed by the worlds in order of their names)
+ *        short  boolean settings, one bit each
+ *        short  number of fireproof block IDs, followed by the IDs as shorts
+ *        short  number of liquid-protected block IDs, followed by the IDs
+ * long   CRC32 of everything before it
+ * </pre>
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class SharedConfigFile {
+	private static final int MAGIC = 0x46534346; // "FSCF"
+	private static final int FORMAT = 1;
+	private static final String PREFIX = "fishyshield-";
+	private static final String SUFFIX = ".fsc";
+	// older versions are kept for readers that are still reading them
+	private static final int VERSIONS_KEPT = 3;
+	// offset and length of the sequence number in the file
+	private static final int SEQUENCE_OFFSET = 8;
+	private static final int SEQUENCE_LENGTH = 8;
+	private static final int CRC_LENGTH = 8;
+
+	// bits of the boolean settings
+	private static final int IGNITE_ENABLE = 1;
+	private static final int IGNITE_DESTROY = 1 << 1;
+	private static final int IGNITE_LAVA = 1 << 2;
+	private static final int IGNITE_FLINTANDSTEEL = 1 << 3;
+	private static final int IGNITE_FIRECHARGE = 1 << 4;
+	private static final int IGNITE_FIRESPREAD = 1 << 5;
+	private static final int IGNITE_LIGHTNING = 1 << 6;
+	private static final int IGNITE_FIREBALL = 1 << 7;
+	private static final int LIQUID_ENABLE = 1 << 8;
+	private static final int EXPLOSION_ENABLE = 1 << 9;
+	private static final int EXPLOSION_DAMAGEBLOCKS = 1 << 10;
+	private static final int EXPLOSION_CASCADETNT = 1 << 11;
+	private static final int ENTITY_HANGING_MOBDAMAGE = 1 << 12;
+
+	private final long sequence;
+	private final WorldSettings defaults;
+	private final Map<String, WorldSettings> worlds;
+
+	private SharedConfigFile(long sequence, WorldSettings defaults,
+			Map<String, WorldSettings> worlds) {
+		this.sequence = sequence;
+		this.defaults = defaults;
+		this.worlds = worlds;
+	}
+
+	/**
+	 * Gets the sequence number of this version.
+	 * 
+	 * @return the sequence number
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the settings of a world.
+	 * 
+	 * @param fqName
+	 *            the fully qualified name of the world
+	 * @return the settings published for that world, or the default settings
+	 *         if the world was not known to the publishing server
+	 */
+	public WorldSettings getSettings(String fqName) {
+		WorldSettings ws = worlds.get(fqName);
+		return ws != null ? ws : defaults;
+	}
+
+	/**
+	 * Finds the highest sequence number in a directory.
+	 * 
+	 * @param directory
+	 *            the shared directory
+	 * @return the highest sequence number, or 0 if there is no version
+	 */
+	public static long findLatestSequence(File directory) {
+		long[] sequences = findSequences(directory);
+		return sequences.length > 0 ? sequences[sequences.length - 1] : 0;
+	}
+
+	/**
+	 * Finds the sequence numbers of all versions in a directory.
+	 * 
+	 * @param directory
+	 *            the shared directory
+	 * @return the sequence numbers in ascending order, empty if there is no
+	 *         version
+	 */
+	public static long[] findSequences(File directory) {
+		String[] names = directory.list();
+		if (names == null) {
+			return new long[0];
+		}
+		long[] sequences = new long[names.length];
+		int count = 0;
+		for (String name : names) {
+			if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+				try {
+					sequences[count] = Long.parseLong(name.substring(
+							PREFIX.length(), name.length() - SUFFIX.length()));
+					++count;
+				} catch (NumberFormatException e) {
+					// not one of ours
+				}
+			}
+		}
+		sequences = Arrays.copyOf(sequences, count);
+		Arrays.sort(sequences);
+		return sequences;
+	}
+
+	/**
+	 * Reads and decodes a version. The files are small, so they are read into
+	 * memory in one go.
+	 * 
+	 * @param directory
+	 *            the shared directory
+	 * @param sequence
+	 *            the sequence number of the version
+	 * @return the decoded version
+	 * @throws IOException
+	 *             if the file cannot be read or is corrupt
+	 */
+	public static SharedConfigFile read(File directory, long sequence)
+			throws IOException {
+		File file = new File(directory, fileName(sequence));
+		return decode(Files.readAllBytes(file.toPath()), file);
+	}
+
+	/**
+	 * Publishes a new version, with a sequence number one higher than the
+	 * latest one in the directory. Nothing is published if the latest version
+	 * has the same settings. Old versions beyond the last few are deleted.
+	 * 
+	 * @param directory
+	 *            the shared directory
+	 * @param defaults
+	 *            the settings for worlds that are not listed
+	 * @param worlds
+	 *            the settings of each world by fully qualified name
+	 * @return the sequence number of the new version, or 0 if the latest
+	 *         version already has the same settings
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static long publish(File directory, WorldSettings defaults,
+			Map<String, WorldSettings> worlds) throws IOException {
+		long sequence = findLatestSequence(directory);
+		byte[] content = encode(sequence + 1, defaults, worlds);
+		if (sequence > 0 && isSameContent(directory, sequence, content)) {
+			return 0;
+		}
+		File temp = File.createTempFile(PREFIX, ".tmp", directory);
+		try {
+			while (true) {
+				++sequence;
+				try (FileOutputStream out = new FileOutputStream(temp)) {
+					out.write(content);
+					out.getFD().sync();
+				}
+				try {
+					// Files.move checks that the target does not exist and
+					// then renames, which is not atomic. This skips a file
+					// left behind by an earlier publisher, but does not make
+					// two publishers safe; only one server may publish.
+					Files.move(temp.toPath(),
+							new File(directory, fileName(sequence)).toPath());
+					break;
+				} catch (FileAlreadyExistsException e) {
+					content = encode(sequence + 1, defaults, worlds);
+				}
+			}
+			deleteOldVersions(directory, sequence);
+			return sequence;
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Compares encoded settings with a published version, ignoring the
+	 * sequence number and the checksum.
+	 * 
+	 * @param directory
+	 *            the shared directory
+	 * @param sequence
+	 *            the sequence number of the published version
+	 * @param content
+	 *            the encoded settings
+	 * @return true if the version is intact and has the same settings
+	 */
+	private static boolean isSameContent(File directory, long sequence,
+			byte[] content) {
+		byte[] published;
+		try {
+			published = Files.readAllBytes(new File(directory,
+					fileName(sequence)).toPath());
+		} catch (IOException e) {
+			// gone or unreadable, publish a new one
+			return false;
+		}
+		int length = content.length - CRC_LENGTH;
+		if (published.length != content.length
+				|| ByteBuffer.wrap(published, length, CRC_LENGTH).getLong()
+						!= checksum(published, length)) {
+			return false;
+		}
+		for (int i = 0; i < length; ++i) {
+			if (published[i] != content[i] && (i < SEQUENCE_OFFSET
+					|| i >= SEQUENCE_OFFSET + SEQUENCE_LENGTH)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long checksum(byte[] bytes, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, length);
+		return crc.getValue();
+	}
+
+	private static String fileName(long sequence) {
+		return PREFIX + sequence + SUFFIX;
+	}
+
+	private static void deleteOldVersions(File directory, long latest) {
+		for (long sequence : findSequences(directory)) {
+			if (sequence <= latest - VERSIONS_KEPT) {
+				new File(directory, fileName(sequence)).delete();
+			}
+		}
+	}
+
+	private static byte[] encode(long sequence, WorldSettings defaults,
+			Map<String, WorldSettings> worlds) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT);
+		out.writeLong(sequence);
+		out.writeInt(worlds.size() + 1);
+		encodeEntry(out, "", defaults);
+		// sorted, so that the same settings always give the same bytes
+		for (Map.Entry<String, WorldSettings> world : new TreeMap<>(worlds)
+				.entrySet()) {
+			encodeEntry(out, world.getKey(), world.getValue());
+		}
+		out.flush();
+		out.writeLong(checksum(bytes.toByteArray(), bytes.size()));
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void encodeEntry(DataOutputStream out, String name,
+			WorldSettings ws) throws IOException {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(nameBytes.length);
+		out.write(nameBytes);
+		int flags = 0;
+		flags |= ws.isIgniteEnable() ? IGNITE_ENABLE : 0;
+		flags |= ws.isIgniteDestroy() ? IGNITE_DESTROY : 0;
+		flags |= ws.isIgniteLava() ? IGNITE_LAVA : 0;
+		flags |= ws.isIgniteFlintAndSteel() ? IGNITE_FLINTANDSTEEL : 0;
+		flags |= ws.isIgniteFireCharge() ? IGNITE_FIRECHARGE : 0;
+		flags |= ws.isIgniteFireSpread() ? IGNITE_FIRESPREAD : 0;
+		flags |= ws.isIgniteLightning() ? IGNITE_LIGHTNING : 0;
+		flags |= ws.isIgniteFireball() ? IGNITE_FIREBALL : 0;
+		flags |= ws.isLiquidEnable() ? LIQUID_ENABLE : 0;
+		flags |= ws.isExplosionEnable() ? EXPLOSION_ENABLE : 0;
+		flags |= ws.isExplosionDamageBlocks() ? EXPLOSION_DAMAGEBLOCKS : 0;
+		flags |= ws.isExplosionCascadeTnt() ? EXPLOSION_CASCADETNT : 0;
+		flags |= ws.isHangingMobDamage() ? ENTITY_HANGING_MOBDAMAGE : 0;
+		out.writeShort(flags);
+		encodeBlockIds(out, ws.getFireproofBlocks());
+		encodeBlockIds(out, ws.getLiquidBlocks());
+	}
+
+	private static void encodeBlockIds(DataOutputStream out, BlockIdSet ids)
+			throws IOException {
+		int count = 0;
+		for (int id = ids.next(0); id >= 0; id = ids.next(id + 1)) {
+			++count;
+		}
+		out.writeShort(count);
+		for (int id = ids.next(0); id >= 0; id = ids.next(id + 1)) {
+			out.writeShort(id);
+		}
+	}
+
+	private static SharedConfigFile decode(byte[] content, File file)
+			throws IOException {
+		int length = content.length - CRC_LENGTH;
+		if (length < 8 + SEQUENCE_LENGTH + 4) {
+			throw new IOException("Shared config file too short: " + file);
+		}
+		if (ByteBuffer.wrap(content, length, CRC_LENGTH).getLong()
+				!= checksum(content, length)) {
+			throw new IOException("Shared config file corrupt: " + file);
+		}
+		try {
+			return decode(ByteBuffer.wrap(content, 0, length), file);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Shared config file truncated: " + file);
+		}
+	}
+
+	private static SharedConfigFile decode(ByteBuffer in, File file)
+			throws IOException {
+		if (in.getInt() != MAGIC || in.getInt() != FORMAT) {
+			throw new IOException("Not a shared config file: " + file);
+		}
+		long sequence = in.getLong();
+		int count = in.getInt();
+		if (count < 1) {
+			throw new IOException("No default entry in shared config file: "
+					+ file);
+		}
+		WorldSettings defaults = null;
+		Map<String, WorldSettings> worlds = new HashMap<>();
+		for (int i = 0; i < count; ++i) {
+			byte[] name = new byte[in.getShort() & 0xFFFF];
+			in.get(name);
+			WorldSettings ws = decodeEntry(in);
+			if (i == 0) {
+				defaults = ws;
+			} else {
+				worlds.put(new String(name, StandardCharsets.UTF_8), ws);
+			}
+		}
+		return new SharedConfigFile(sequence, defaults,
+				Collections.unmodifiableMap(worlds));
+	}
+
+	private static WorldSettings decodeEntry(ByteBuffer in) {
+		WorldSettings ws = new WorldSettings();
+		int flags = in.getShort();
+		ws.setIgniteEnable((flags & IGNITE_ENABLE) != 0);
+		ws.setIgniteDestroy((flags & IGNITE_DESTROY) != 0);
+		ws.setIgniteLava((flags & IGNITE_LAVA) != 0);
+		ws.setIgniteFlintAndSteel((flags & IGNITE_FLINTANDSTEEL) != 0);
+		ws.setIgniteFireCharge((flags & IGNITE_FIRECHARGE) != 0);
+		ws.setIgniteFireSpread((flags & IGNITE_FIRESPREAD) != 0);
+		ws.setIgniteLightning((flags & IGNITE_LIGHTNING) != 0);
+		ws.setIgniteFireball((flags & IGNITE_FIREBALL) != 0);
+		ws.setLiquidEnable((flags & LIQUID_ENABLE) != 0);
+		ws.setExplosionEnable((flags & EXPLOSION_ENABLE) != 0);
+		ws.setExplosionDamageBlocks((flags & EXPLOSION_DAMAGEBLOCKS) != 0);
+		ws.setExplosionCascadeTnt((flags & EXPLOSION_CASCADETNT) != 0);
+		ws.setHangingMobDamage((flags & ENTITY_HANGING_MOBDAMAGE) != 0);
+		decodeBlockIds(in, ws.getFireproofBlocks());
+		decodeBlockIds(in, ws.getLiquidBlocks());
+		return ws;
+	}
+
+	private static void decodeBlockIds(ByteBuffer in, BlockIdSet ids) {
+		int count = in.getShort() & 0xFFFF;
+		for (int i = 0; i < count; ++i) {
+			ids.add(in.getShort() & 0xFFFF);
+		}
+	}
+}
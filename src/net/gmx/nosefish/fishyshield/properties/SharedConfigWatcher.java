@@ -0,0 +1,158 @@
+package net.gmx.nosefish.fishyshield.properties;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.gmx.nosefish.fishyshield.FishyShield;
+
+/**
+ * Watches the shared directory for new versions of the
+ * <code>SharedConfigFile</code>.
+ * <p>
+ * Listing and reading files on a network file system may block, so this runs
+ * on its own daemon thread instead of the server thread. A newly read version
+ * is handed over through <code>takeNewVersion</code>, which the server thread
+ * polls once per tick.
+ * <p>
+ * If the latest version cannot be read, the newest older version that can
+ * be read is used instead. Published files never change, so a version that
+ * failed is not read again, and its failure is logged only once.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public class SharedConfigWatcher implements Runnable {
+	private final File directory;
+	private final long pollIntervalMillis;
+	private final Thread thread;
+	private volatile boolean running;
+	private final AtomicReference<SharedConfigFile> newVersion;
+	private final Set<Long> failedSequences;
+	private long currentSequence;
+	private String lastError;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param directory
+	 *            the shared directory
+	 * @param currentSequence
+	 *            the sequence number already in use, 0 for none
+	 * @param pollIntervalMillis
+	 *            the time between two checks of the directory
+	 */
+	public SharedConfigWatcher(File directory, long currentSequence,
+			long pollIntervalMillis) {
+		this.directory = directory;
+		this.currentSequence = currentSequence;
+		this.pollIntervalMillis = pollIntervalMillis;
+		this.newVersion = new AtomicReference<>();
+		this.failedSequences = new HashSet<>();
+		this.thread = new Thread(this, "FishyShield shared config watcher");
+		this.thread.setDaemon(true);
+	}
+
+	public void start() {
+		running = true;
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		thread.interrupt();
+	}
+
+	/**
+	 * Gets a version that has been read since the last call.
+	 * 
+	 * @return the new version, or null if there is none
+	 */
+	public SharedConfigFile takeNewVersion() {
+		return newVersion.getAndSet(null);
+	}
+
+	/**
+	 * Reads the newest readable version with a sequence number higher than
+	 * the one in use, and makes it the one in use. Called by the watcher
+	 * thread, and before <code>start</code> to load the initial version.
+	 * 
+	 * @return the version, or null if there is no newer readable version
+	 */
+	public SharedConfigFile readNewVersion() {
+		long[] sequences = SharedConfigFile.findSequences(directory);
+		forgetDeletedFailures(sequences);
+		for (int i = sequences.length - 1; i >= 0; --i) {
+			long sequence = sequences[i];
+			if (sequence <= currentSequence) {
+				break;
+			}
+			if (failedSequences.contains(Long.valueOf(sequence))) {
+				continue;
+			}
+			try {
+				SharedConfigFile version = SharedConfigFile.read(directory,
+						sequence);
+				currentSequence = sequence;
+				return version;
+			} catch (IOException | RuntimeException e) {
+				failedSequences.add(Long.valueOf(sequence));
+				FishyShield.logger.warn("Could not read shared config version "
+						+ sequence + ": " + e);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			poll();
+			try {
+				Thread.sleep(pollIntervalMillis);
+			} catch (InterruptedException e) {
+				// stop() was called
+			}
+		}
+	}
+
+	/**
+	 * Hands over a newer version, if there is one. Never throws, so that the
+	 * thread keeps watching.
+	 */
+	private void poll() {
+		try {
+			SharedConfigFile version = readNewVersion();
+			if (version != null) {
+				newVersion.set(version);
+			}
+			lastError = null;
+		} catch (RuntimeException e) {
+			String error = e.toString();
+			if (!error.equals(lastError)) {
+				// once, instead of every poll interval
+				FishyShield.logger.warn("Could not check " + directory
+						+ " for a new shared config version: " + error);
+				lastError = error;
+			}
+		}
+	}
+
+	/**
+	 * Drops the failed sequence numbers whose files have been deleted.
+	 * 
+	 * @param sequences
+	 *            the sequence numbers of the files in the directory
+	 */
+	private void forgetDeletedFailures(long[] sequences) {
+		long oldest = sequences.length > 0 ? sequences[0] : Long.MAX_VALUE;
+		for (Iterator<Long> it = failedSequences.iterator(); it.hasNext();) {
+			if (it.next().longValue() < oldest) {
+				it.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package net.gmx.nosefish.fishyshield.properties;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.canarymod.api.world.World;
+import net.gmx.nosefish.fishylib.properties.Properties;
+import net.gmx.nosefish.fishyshield.engine.BlockIdSet;
+import net.gmx.nosefish.fishyshield.engine.SettingsReleaseListener;
+import net.gmx.nosefish.fishyshield.engine.WorldSettings;
+import net.gmx.nosefish.fishyshield.engine.WorldSettingsSource;
+
+/**
+ * Assigns an integer ID to every world and resolves the properties of each
+ * world into <code>WorldSettings</code> for the <code>ProtectionEngine</code>.
+ * <p>
+ * Settings are resolved lazily, on the first hook from a world, and kept in a
+ * cache of at most <code>capacity</code> worlds. When the cache is full, the
+ * least recently used settings are dropped; they are resolved again if that
+ * world is used later. When a world is unloaded, its settings are dropped
+ * and its ID is handed out again to the next new world.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public class WorldSettingsCache implements WorldSettingsSource {
+	// estimated size of one resolved WorldSettings, for the memory report.
+	// Checked against a measurement by WorldSettingsCacheTest.
+	static final int SETTINGS_BYTES = 2240;
+
+	private Properties properties;
+	private final int capacity;
+	private final Map<String, Integer> worldIds;
+	private final Deque<Integer> freeIds;
+	private World[] worlds;
+	private WorldSettings[] settings;
+	private long[] lastUsed;
+	private int nextId;
+	private long useCounter;
+	// the world of the previous lookup; hooks of one world tend to come in
+	// bursts, and getFqName() builds a new String on every call
+	private World lastWorld;
+	private int lastWorldId;
+	private SharedConfigFile sharedConfig;
+	private SettingsReleaseListener releaseListener;
+
+	// statistics for getReport
+	private int resolvedCount;
+	private int peakResolvedCount;
+	private long resolutions;
+	private long evictions;
+	private long releases;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param properties
+	 *            the properties to resolve the settings from
+	 * @param capacity
+	 *            the maximum number of worlds whose settings are kept
+	 */
+	public WorldSettingsCache(Properties properties, int capacity) {
+		this.properties = properties;
+		this.capacity = Math.max(capacity, 1);
+		this.worldIds = new HashMap<>();
+		this.freeIds = new ArrayDeque<>();
+		this.worlds = new World[16];
+		this.settings = new WorldSettings[16];
+		this.lastUsed = new long[16];
+	}
+
+	/**
+	 * Gets the ID of a world, assigning a new one if the world has not been
+	 * seen before. Does not resolve the settings.
+	 * 
+	 * @param world
+	 *            the world
+	 * @return the ID to pass to the <code>ProtectionEngine</code>
+	 */
+	public int getWorldId(World world) {
+		if (world == lastWorld) {
+			return lastWorldId;
+		}
+		Integer id = worldIds.get(world.getFqName());
+		int worldId;
+		if (id != null) {
+			worldId = id.intValue();
+		} else {
+			worldId = freeIds.isEmpty() ? nextId++ : freeIds.pop().intValue();
+			if (worldId >= worlds.length) {
+				int length = worlds.length * 2;
+				worlds = Arrays.copyOf(worlds, length);
+				settings = Arrays.copyOf(settings, length);
+				lastUsed = Arrays.copyOf(lastUsed, length);
+			}
+			worlds[worldId] = world;
+			worldIds.put(world.getFqName(), Integer.valueOf(worldId));
+		}
+		lastWorld = world;
+		lastWorldId = worldId;
+		return worldId;
+	}
+
+	/**
+	 * Sets the listener that is told whenever the settings of a world are
+	 * dropped, by eviction or release.
+	 * 
+	 * @param releaseListener
+	 *            the listener
+	 */
+	public void setReleaseListener(SettingsReleaseListener releaseListener) {
+		this.releaseListener = releaseListener;
+	}
+
+	/**
+	 * Forgets a world that has been unloaded. Its ID will be reused, so the
+	 * caller must discard everything else that is keyed by world ID.
+	 * 
+	 * @param world
+	 *            the unloaded world
+	 * @return the ID the world had, or -1 if it had none
+	 */
+	public int release(World world) {
+		Integer id = worldIds.remove(world.getFqName());
+		if (id == null) {
+			return -1;
+		}
+		int worldId = id.intValue();
+		if (settings[worldId] != null) {
+			drop(worldId);
+		}
+		worlds[worldId] = null;
+		freeIds.push(id);
+		if (lastWorld != null && lastWorldId == worldId) {
+			lastWorld = null;
+		}
+		++releases;
+		return worldId;
+	}
+
+	/**
+	 * Describes the state of the cache, to verify how much work and memory
+	 * the lazy resolution saves.
+	 * 
+	 * @return a one-line report
+	 */
+	public String getReport() {
+		return String.format("World settings: %d of %d known worlds resolved"
+				+ " (peak %d, limit %d, est. %d KiB), %d resolutions,"
+				+ " %d evictions, %d worlds released",
+				resolvedCount, worldIds.size(), peakResolvedCount, capacity,
+				resolvedCount * SETTINGS_BYTES / 1024, resolutions, evictions,
+				releases);
+	}
+
+	/**
+	 * Makes the cache resolve the settings from reloaded properties. The
+	 * caller must call <code>clear</code> afterwards.
+	 * 
+	 * @param properties
+	 *            the new properties
+	 */
+	public void setProperties(Properties properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * Makes the cache take the settings from a shared config version instead
+	 * of the properties. The caller must call <code>clear</code> afterwards.
+	 * 
+	 * @param sharedConfig
+	 *            the version to use, or null to use the properties again
+	 */
+	public void setSharedConfig(SharedConfigFile sharedConfig) {
+		this.sharedConfig = sharedConfig;
+	}
+
+	/**
+	 * Resolves the settings of worlds from the properties, ignoring any shared
+	 * config, to publish them.
+	 * 
+	 * @param worlds
+	 *            the worlds to resolve
+	 * @return the settings of each world by fully qualified name
+	 */
+	public Map<String, WorldSettings> resolveAll(Iterable<World> worlds) {
+		Map<String, WorldSettings> resolved = new HashMap<>();
+		for (World world : worlds) {
+			resolved.put(world.getFqName(), resolveProperties(world));
+		}
+		return resolved;
+	}
+
+	/**
+	 * Discards the resolved settings of all worlds. They are resolved again
+	 * when they are next requested. World IDs stay valid.
+	 */
+	public void clear() {
+		Arrays.fill(settings, null);
+		resolvedCount = 0;
+	}
+
+	@Override
+	public WorldSettings getSettings(int worldId) {
+		lastUsed[worldId] = ++useCounter;
+		WorldSettings ws = settings[worldId];
+		if (ws == null) {
+			if (resolvedCount >= capacity) {
+				evictLeastRecentlyUsed();
+			}
+			ws = resolve(worlds[worldId]);
+			settings[worldId] = ws;
+			++resolvedCount;
+			++resolutions;
+			peakResolvedCount = Math.max(peakResolvedCount, resolvedCount);
+		}
+		return ws;
+	}
+
+	/**
+	 * Drops the settings of the world that has not been used for the longest
+	 * time. Only called when a world has to be resolved and the cache is
+	 * full, so a linear scan is good enough.
+	 */
+	private void evictLeastRecentlyUsed() {
+		int eldest = -1;
+		for (int id = 0; id < nextId; ++id) {
+			if (settings[id] != null
+					&& (eldest < 0 || lastUsed[id] < lastUsed[eldest])) {
+				eldest = id;
+			}
+		}
+		if (eldest >= 0) {
+			drop(eldest);
+			++evictions;
+		}
+	}
+
+	private void drop(int worldId) {
+		settings[worldId] = null;
+		--resolvedCount;
+		if (releaseListener != null) {
+			releaseListener.settingsReleased(worldId);
+		}
+	}
+
+	/**
+	 * Gets the settings of a world from the shared config if there is one,
+	 * from the properties otherwise.
+	 * 
+	 * @param world
+	 *            the world
+	 * @return the resolved settings
+	 */
+	private WorldSettings resolve(World world) {
+		if (sharedConfig != null) {
+			return sharedConfig.getSettings(world.getFqName());
+		}
+		return resolveProperties(world);
+	}
+
+	/**
+	 * Reads the settings of a world from the properties.
+	 * 
+	 * @param world
+	 *            the world
+	 * @return the resolved settings
+	 */
+	public WorldSettings resolveProperties(World world) {
+		WorldSettings ws = new WorldSettings();
+		ws.setIgniteEnable(properties.getBoolean(world, Key.IGNITE_ENABLE));
+		ws.setIgniteDestroy(properties.getBoolean(world, Key.IGNITE_DESTROY));
+		ws.setIgniteLava(properties.getBoolean(world, Key.IGNITE_LAVA));
+		ws.setIgniteFlintAndSteel(properties.getBoolean(world,
+				Key.IGNITE_FLINTANDSTEEL));
+		ws.setIgniteFireCharge(properties.getBoolean(world,
+				Key.IGNITE_FIRECHARGE));
+		ws.setIgniteFireSpread(properties.getBoolean(world,
+				Key.IGNITE_FIRESPREAD));
+		ws.setIgniteLightning(properties.getBoolean(world,
+				Key.IGNITE_LIGHTNING));
+		ws.setIgniteFireball(properties.getBoolean(world, Key.IGNITE_FIREBALL));
+		ws.setLiquidEnable(properties.getBoolean(world, Key.LIQUID_ENABLE));
+		ws.setExplosionEnable(properties.getBoolean(world,
+				Key.EXPLOSION_ENABLE));
+		ws.setExplosionDamageBlocks(properties.getBoolean(world,
+				Key.EXPLOSION_DAMAGEBLOCKS));
+		ws.setExplosionCascadeTnt(properties.getBoolean(world,
+				Key.EXPLOSION_CASCADETNT));
+		ws.setHangingMobDamage(properties.getBoolean(world,
+				Key.ENTITY_HANGING_MOBDAMAGE));
+		resolveBlockIds(world, Key.IGNITE_FIREPROOF, ws.getFireproofBlocks());
+		resolveBlockIds(world, Key.LIQUID_BLOCKS, ws.getLiquidBlocks());
+		return ws;
+	}
+
+	/**
+	 * Makes a <code>BlockIdSet</code> answer from a CSV_INT block list. The
+	 * properties only offer a membership test, so each block ID is looked up
+	 * when it is first queried instead of probing all valid IDs up front.
+	 * 
+	 * @param world
+	 *            the world
+	 * @param key
+	 *            the key of the block list
+	 * @param target
+	 *            the set to fill
+	 */
+	private void resolveBlockIds(final World world, final Key key,
+			BlockIdSet target) {
+		target.setLookup(new BlockIdSet.Lookup() {
+			@Override
+			public boolean contains(int id) {
+				return properties.containsInteger(world, key, id);
+			}
+		});
+	}
+}
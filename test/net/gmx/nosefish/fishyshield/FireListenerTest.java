@@ -0,0 +1,82 @@
+package net.gmx.nosefish.fishyshield;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.canarymod.api.world.World;
+import net.canarymod.hook.world.IgnitionHook;
+import net.canarymod.hook.world.IgnitionHook.IgnitionCause;
+import net.gmx.nosefish.fishyshield.Stubs.BlockStub;
+import net.gmx.nosefish.fishyshield.engine.WorldSettings;
+import net.gmx.nosefish.fishyshield.listeners.FireListener;
+
+/**
+ * Regression test for the removal of perpetual fires by
+ * <code>FireListener</code>: a protected block with fire on all six faces
+ * loses only the fire on top while the burn attempts are below the
+ * threshold, and all of it on the third denied attempt.
+ * <p>
+ * Run by <code>ant test</code>; exits with status 1 if a check fails.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class FireListenerTest {
+	private static final int BLOCK_PLANKS = 5;
+	private static final int BLOCK_FIRE = 51;
+	private static final int[][] FACES = { { 0, 1, 0 }, { 0, -1, 0 },
+			{ 1, 0, 0 }, { -1, 0, 0 }, { 0, 0, 1 }, { 0, 0, -1 } };
+
+	private static final List<String> failures = new ArrayList<>();
+
+	public static void main(String[] args) {
+		World world = Stubs.world("protected");
+		WorldSettings ws = new WorldSettings();
+		ws.setIgniteEnable(true);
+		ws.setIgniteDestroy(false);
+		Map<String, WorldSettings> settings = new HashMap<>();
+		settings.put(world.getFqName(), ws);
+		FireListener listener = new FireListener(Stubs.plugin(settings));
+
+		BlockStub block = Stubs.block(world, BLOCK_PLANKS).at(10, 64, 10);
+		BlockStub[] fires = new BlockStub[FACES.length];
+		for (int i = 0; i < FACES.length; ++i) {
+			// without a neighbour, the fire stands on fire, not on air, so
+			// extinguishBlock leaves the fire on the sides alone
+			fires[i] = Stubs.block(world, BLOCK_FIRE);
+			block.withRelative(FACES[i][0], FACES[i][1], FACES[i][2],
+					fires[i]);
+		}
+		IgnitionHook hook = Stubs.hook(IgnitionHook.class, block.block,
+				IgnitionCause.BURNT);
+		for (int attempt = 1; attempt <= 3; ++attempt) {
+			Stubs.uncancel(hook);
+			listener.onIgnite(hook);
+			check(hook.isCanceled(), "burning allowed on attempt " + attempt);
+			int burning = 0;
+			for (BlockStub fire : fires) {
+				if (fire.getTypeId() == BLOCK_FIRE) {
+					++burning;
+				}
+			}
+			int expected = attempt < 3 ? FACES.length - 1 : 0;
+			check(burning == expected, burning + " faces on fire after attempt "
+					+ attempt + ", expected " + expected);
+		}
+		for (String failure : failures) {
+			System.out.println("FAIL: " + failure);
+		}
+		if (!failures.isEmpty()) {
+			System.exit(1);
+		}
+		System.out.println("FireListener: all checks passed");
+	}
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			failures.add(failure);
+		}
+	}
+}
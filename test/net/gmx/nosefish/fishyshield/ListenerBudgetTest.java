@@ -0,0 +1,416 @@
+package net.gmx.nosefish.fishyshield;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.canarymod.api.entity.TNTPrimed;
+import net.canarymod.api.entity.living.monster.Creeper;
+import net.canarymod.api.world.World;
+import net.canarymod.api.world.blocks.Block;
+import net.canarymod.hook.world.ExplosionHook;
+import net.canarymod.hook.world.IgnitionHook;
+import net.canarymod.hook.world.IgnitionHook.IgnitionCause;
+import net.canarymod.hook.world.LiquidDestroyHook;
+import net.canarymod.hook.world.PortalCreateHook;
+import net.gmx.nosefish.fishyshield.Stubs.BlockStub;
+import net.gmx.nosefish.fishyshield.engine.WorldSettings;
+import net.gmx.nosefish.fishyshield.listeners.ExplosionListener;
+import net.gmx.nosefish.fishyshield.listeners.FireListener;
+import net.gmx.nosefish.fishyshield.listeners.LiquidListener;
+
+/**
+ * Regression test for the cost of the hook handlers.
+ * <p>
+ * Runs <code>onIgnite</code>, <code>onExplosion</code>,
+ * <code>onLiquidDestroy</code> and <code>onPortalCreate</code> on stubbed
+ * hooks. Each scenario first checks the outcome of one call, then measures
+ * the handler in a loop and fails if it
+ * <ul>
+ * <li>allocates more bytes per hook than its budget, counted with
+ * <code>ThreadMXBean.getThreadAllocatedBytes</code>, or</li>
+ * <li>takes longer per hook than its budget relative to a baseline loop that
+ * only reads the hook, so that the budget does not depend on the speed of the
+ * machine.</li>
+ * </ul>
+ * Run by <code>ant test</code>; exits with status 1 if a check fails.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class ListenerBudgetTest {
+	private static final int WARMUP_ITERATIONS = 100000;
+	private static final int ITERATIONS = 200000;
+	private static final int ROUNDS = 5;
+	// allocated by the measurement itself, not by the handler
+	private static final long MEASUREMENT_SLACK_BYTES = 4096;
+	// positions cycle through this many blocks along x
+	private static final int POSITIONS = 4096;
+	private static final int EXPLOSION_SIZE = 64;
+	private static final int TNT_EVERY = 8;
+	// latency budget of a handler that reads the hook and decides, as a
+	// multiple of only reading the hook. Generous, as timings on a shared
+	// machine are noisy; a lookup in the properties is 100 times slower.
+	private static final double DECISION_RATIO = 8.0;
+	// for handlers that also look at the neighbouring blocks
+	private static final double NEIGHBOURS_RATIO = 16.0;
+
+	private static final int BLOCK_AIR = 0;
+	private static final int BLOCK_STONE = 1;
+	private static final int BLOCK_PLANKS = 5;
+	private static final int BLOCK_TNT = 46;
+	private static final int BLOCK_TORCH = 50;
+
+	// keeps the results of the loops alive
+	private static long sink;
+
+	/**
+	 * One handler call on a prepared hook.
+	 */
+	private abstract static class Scenario {
+		final String name;
+		final long bytesPerHook;
+		final double maxBaselineRatio;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param name
+		 *            shown in the report
+		 * @param bytesPerHook
+		 *            allocation budget per hook
+		 * @param maxBaselineRatio
+		 *            latency budget, as a multiple of the baseline
+		 */
+		Scenario(String name, long bytesPerHook, double maxBaselineRatio) {
+			this.name = name;
+			this.bytesPerHook = bytesPerHook;
+			this.maxBaselineRatio = maxBaselineRatio;
+		}
+
+		/**
+		 * Checks the outcome of a single call.
+		 * 
+		 * @return null if the outcome is right, a description otherwise
+		 */
+		abstract String check();
+
+		/**
+		 * Calls the handler for iteration <code>i</code>.
+		 */
+		abstract void handle(int i);
+
+		/**
+		 * Prepares the hook for iteration <code>i</code> and reads the values
+		 * every handler reads from it, without deciding anything.
+		 */
+		abstract void baseline(int i);
+	}
+
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("FAIL: this JVM cannot count allocated bytes");
+			System.exit(1);
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+		List<String> failures = new ArrayList<>();
+		System.out.println(String.format("%-40s %9s %9s %9s %11s",
+				"scenario", "ns/hook", "baseline", "ratio", "bytes/hook"));
+		for (Scenario scenario : createScenarios()) {
+			String problem = scenario.check();
+			if (problem != null) {
+				failures.add(scenario.name + ": " + problem);
+				continue;
+			}
+			measure(threads, scenario, failures);
+		}
+		for (String failure : failures) {
+			System.out.println("FAIL: " + failure);
+		}
+		if (!failures.isEmpty()) {
+			System.exit(1);
+		}
+		System.out.println("All budgets met (" + sink % 2 + ")");
+	}
+
+	private static void measure(com.sun.management.ThreadMXBean threads,
+			Scenario scenario, List<String> failures) {
+		long threadId = Thread.currentThread().getId();
+		for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+			scenario.baseline(i);
+			scenario.handle(i);
+		}
+		long bestHandler = Long.MAX_VALUE;
+		long bestBaseline = Long.MAX_VALUE;
+		long handlerBytes = Long.MAX_VALUE;
+		long baselineBytes = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; ++round) {
+			long allocated = threads.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; ++i) {
+				scenario.baseline(i);
+			}
+			bestBaseline = Math.min(bestBaseline, System.nanoTime() - start);
+			baselineBytes = Math.min(baselineBytes,
+					threads.getThreadAllocatedBytes(threadId) - allocated);
+			allocated = threads.getThreadAllocatedBytes(threadId);
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; ++i) {
+				scenario.baseline(i);
+				scenario.handle(i);
+			}
+			bestHandler = Math.min(bestHandler, System.nanoTime() - start);
+			handlerBytes = Math.min(handlerBytes,
+					threads.getThreadAllocatedBytes(threadId) - allocated);
+		}
+		// the handler loop prepares the hook like the baseline loop does
+		double handlerNs = Math.max(bestHandler - bestBaseline, 0)
+				/ (double) ITERATIONS;
+		double baselineNs = bestBaseline / (double) ITERATIONS;
+		double ratio = handlerNs / baselineNs;
+		double bytesPerHook = Math.max(handlerBytes - baselineBytes
+				- MEASUREMENT_SLACK_BYTES, 0) / (double) ITERATIONS;
+		System.out.println(String.format("%-40s %9.1f %9.1f %9.2f %11.1f",
+				scenario.name, handlerNs, baselineNs, ratio, bytesPerHook));
+		if (bytesPerHook > scenario.bytesPerHook) {
+			failures.add(String.format("%s allocates %.1f bytes per hook,"
+					+ " budget %d", scenario.name, bytesPerHook,
+					scenario.bytesPerHook));
+		}
+		if (ratio > scenario.maxBaselineRatio) {
+			failures.add(String.format("%s takes %.2f times the baseline,"
+					+ " budget %.2f", scenario.name, ratio,
+					scenario.maxBaselineRatio));
+		}
+	}
+
+	private static List<Scenario> createScenarios() {
+		final World protectedWorld = Stubs.world("protected");
+		final World openWorld = Stubs.world("open");
+		Map<String, WorldSettings> settings = new HashMap<>();
+		WorldSettings ws = new WorldSettings();
+		ws.setIgniteEnable(true);
+		ws.setIgniteFireSpread(false);
+		ws.setIgniteDestroy(false);
+		ws.setLiquidEnable(true);
+		ws.getLiquidBlocks().add(BLOCK_TORCH);
+		ws.setExplosionEnable(true);
+		ws.setExplosionDamageBlocks(false);
+		ws.setExplosionCascadeTnt(true);
+		settings.put(protectedWorld.getFqName(), ws);
+		settings.put(openWorld.getFqName(), new WorldSettings());
+		FishyShield plugin = Stubs.plugin(settings);
+		final FireListener fireListener = new FireListener(plugin);
+		final LiquidListener liquidListener = new LiquidListener(plugin);
+		final ExplosionListener explosionListener = new ExplosionListener(
+				plugin);
+
+		List<Scenario> scenarios = new ArrayList<>();
+		scenarios.add(new LiquidScenario("liquid, protected block",
+				liquidListener, protectedWorld, BLOCK_TORCH, true));
+		scenarios.add(new LiquidScenario("liquid, unprotected block",
+				liquidListener, openWorld, BLOCK_TORCH, false));
+		scenarios.add(new IgnitionScenario("ignite, fire spread denied", 0,
+				DECISION_RATIO,
+				fireListener, protectedWorld, IgnitionCause.FIRE_SPREAD, true));
+		// extinguishBlock looks at the 5 neighbours that may be on fire. The
+		// stubs allocate a 32 byte argument array for each getRelative call.
+		scenarios.add(new IgnitionScenario("ignite, burning denied", 5 * 32,
+				NEIGHBOURS_RATIO,
+				fireListener, protectedWorld, IgnitionCause.BURNT, true));
+		scenarios.add(new IgnitionScenario("ignite, lava allowed", 0,
+				DECISION_RATIO,
+				fireListener, openWorld, IgnitionCause.LAVA, false));
+		scenarios.add(new ExplosionScenario("explosion, TNT filtered",
+				explosionListener, protectedWorld,
+				Stubs.entity(TNTPrimed.class), EXPLOSION_SIZE / TNT_EVERY));
+		scenarios.add(new ExplosionScenario("explosion, creeper unchanged",
+				explosionListener, openWorld, Stubs.entity(Creeper.class),
+				EXPLOSION_SIZE));
+		scenarios.add(new PortalScenario(fireListener, protectedWorld));
+		return scenarios;
+	}
+
+	private static final class LiquidScenario extends Scenario {
+		private final LiquidListener listener;
+		private final BlockStub block;
+		private final LiquidDestroyHook hook;
+		private final boolean denied;
+
+		LiquidScenario(String name, LiquidListener listener, World world,
+				int typeId, boolean denied) {
+			super(name, 0, DECISION_RATIO);
+			this.listener = listener;
+			this.block = Stubs.block(world, typeId);
+			this.hook = Stubs.hook(LiquidDestroyHook.class, block.block);
+			this.denied = denied;
+		}
+
+		@Override
+		String check() {
+			Stubs.uncancel(hook);
+			listener.onLiquidDestroy(hook);
+			return hook.isCanceled() == denied ? null : "canceled: "
+					+ hook.isCanceled();
+		}
+
+		@Override
+		void handle(int i) {
+			listener.onLiquidDestroy(hook);
+		}
+
+		@Override
+		void baseline(int i) {
+			block.at(i % POSITIONS, 64, 0);
+			Block b = hook.getBlock();
+			sink += (b.getWorld() != null ? 1 : 0) + b.getX() + b.getY() + b.getZ()
+					+ b.getTypeId();
+		}
+	}
+
+	private static final class IgnitionScenario extends Scenario {
+		private final FireListener listener;
+		private final BlockStub block;
+		private final BlockStub neighbour;
+		private final IgnitionHook hook;
+		private final boolean denied;
+
+		IgnitionScenario(String name, long bytesPerHook, double ratio,
+				FireListener listener, World world, IgnitionCause cause,
+				boolean denied) {
+			super(name, bytesPerHook, ratio);
+			this.listener = listener;
+			this.neighbour = Stubs.block(world, BLOCK_AIR);
+			this.block = Stubs.block(world, BLOCK_PLANKS).withNeighbour(
+					neighbour);
+			this.hook = Stubs.hook(IgnitionHook.class, block.block, cause);
+			this.denied = denied;
+		}
+
+		@Override
+		String check() {
+			Stubs.uncancel(hook);
+			listener.onIgnite(hook);
+			if (hook.isCanceled() != denied) {
+				return "canceled: " + hook.isCanceled();
+			}
+			return neighbour.getTypeChanges() == 0 ? null
+					: "changed a block that is not on fire";
+		}
+
+		@Override
+		void handle(int i) {
+			listener.onIgnite(hook);
+		}
+
+		@Override
+		void baseline(int i) {
+			block.at(i % POSITIONS, 64, 0);
+			Block b = hook.getBlock();
+			sink += (b.getWorld() != null ? 1 : 0) + b.getX() + b.getY() + b.getZ()
+					+ b.getTypeId() + hook.getCause().ordinal();
+		}
+	}
+
+	private static final class ExplosionScenario extends Scenario {
+		private final ExplosionListener listener;
+		private final Block[] blocks;
+		private final List<Block> affected;
+		private final ExplosionHook hook;
+		private final int remaining;
+
+		ExplosionScenario(String name, ExplosionListener listener,
+				World world, Object entity, int remaining) {
+			super(name, 0, DECISION_RATIO);
+			this.listener = listener;
+			this.blocks = new Block[EXPLOSION_SIZE];
+			for (int i = 0; i < blocks.length; ++i) {
+				blocks[i] = Stubs.block(world,
+						i % TNT_EVERY == 0 ? BLOCK_TNT : BLOCK_STONE).at(i, 64,
+						0).block;
+			}
+			this.affected = new ArrayList<>(EXPLOSION_SIZE);
+			this.hook = Stubs.hook(ExplosionHook.class,
+					Stubs.block(world, BLOCK_AIR).block, entity, affected);
+			this.remaining = remaining;
+		}
+
+		@Override
+		String check() {
+			Stubs.uncancel(hook);
+			baseline(0);
+			listener.onExplosion(hook);
+			if (hook.isCanceled()) {
+				return "canceled";
+			}
+			if (affected.size() != remaining) {
+				return affected.size() + " blocks left, expected " + remaining;
+			}
+			for (Block block : affected) {
+				if (remaining < EXPLOSION_SIZE
+						&& block.getTypeId() != BLOCK_TNT) {
+					return "kept a block that is not TNT";
+				}
+			}
+			return null;
+		}
+
+		@Override
+		void handle(int i) {
+			listener.onExplosion(hook);
+		}
+
+		@Override
+		void baseline(int i) {
+			affected.clear();
+			for (Block block : blocks) {
+				affected.add(block);
+			}
+			Block b = hook.getBlock();
+			sink += (b.getWorld() != null ? 1 : 0) + b.getX() + b.getY() + b.getZ()
+					+ (hook.getEntity() != null ? 1 : 0);
+			for (int n = 0; n < EXPLOSION_SIZE; ++n) {
+				sink += affected.get(n).getTypeId();
+			}
+		}
+	}
+
+	private static final class PortalScenario extends Scenario {
+		private final FireListener listener;
+		private final PortalCreateHook hook;
+
+		PortalScenario(FireListener listener, World world) {
+			super("portal, no fire lit by a player", 0, DECISION_RATIO);
+			this.listener = listener;
+			Block[][] portal = new Block[3][2];
+			for (int y = 0; y < 3; ++y) {
+				for (int x = 0; x < 2; ++x) {
+					portal[y][x] = Stubs.block(world, BLOCK_AIR).at(x, 64 + y,
+							0).block;
+				}
+			}
+			this.hook = Stubs.hook(PortalCreateHook.class, (Object) portal);
+		}
+
+		@Override
+		String check() {
+			Stubs.uncancel(hook);
+			listener.onPortalCreate(hook);
+			return hook.isCanceled() ? null : "portal not blocked";
+		}
+
+		@Override
+		void handle(int i) {
+			listener.onPortalCreate(hook);
+		}
+
+		@Override
+		void baseline(int i) {
+			sink += hook.getBlockSet().length;
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package net.gmx.nosefish.fishyshield;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import net.canarymod.api.world.World;
+import net.canarymod.api.world.blocks.Block;
+import net.canarymod.api.world.blocks.BlockType;
+import net.canarymod.hook.CancelableHook;
+import net.canarymod.logger.Logman;
+import net.gmx.nosefish.fishyshield.engine.WorldSettings;
+import net.gmx.nosefish.fishyshield.properties.WorldSettingsCache;
+
+/**
+ * Stand-ins for the server objects the listeners are called with, so that
+ * the tests can run the hook handlers without a server.
+ * <p>
+ * Server API interfaces are implemented with dynamic proxies that answer the
+ * few methods the listeners call and throw for any other method. Hooks need
+ * a running server to be constructed, so they are allocated without running
+ * a constructor, and their fields are filled by type. Nothing here depends
+ * on field names of the server API.
+ * <p>
+ * Coordinates and block IDs are handed out pre-boxed, so that the stubs
+ * themselves do not allocate while the handlers are measured. Only methods
+ * with arguments, like <code>Block.getRelative</code>, allocate an argument
+ * array per call.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class Stubs {
+	private static final Integer[] BOXED = new Integer[4096];
+	private static final Object UNSAFE;
+	private static final Method ALLOCATE_INSTANCE;
+
+	static {
+		for (int i = 0; i < BOXED.length; ++i) {
+			BOXED[i] = Integer.valueOf(i);
+		}
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			UNSAFE = theUnsafe.get(null);
+			ALLOCATE_INSTANCE = unsafeClass.getMethod("allocateInstance",
+					Class.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private Stubs() {
+	}
+
+	/**
+	 * A block in a stubbed world. Its position and type can be changed
+	 * between calls.
+	 */
+	static final class BlockStub implements InvocationHandler {
+		final Block block;
+		private final World world;
+		private Object x = BOXED[0];
+		private Object y = BOXED[0];
+		private Object z = BOXED[0];
+		private Object typeId;
+		private Block neighbour;
+		// by offset, see relativeIndex
+		private Block[] relatives;
+		private int typeChanges;
+
+		private BlockStub(World world, int typeId) {
+			this.world = world;
+			this.typeId = Short.valueOf((short) typeId);
+			this.block = (Block) Proxy.newProxyInstance(
+					Block.class.getClassLoader(), new Class<?>[] { Block.class },
+					this);
+		}
+
+		/**
+		 * Moves the block.
+		 * 
+		 * @param x
+		 *            x coordinate, 0..4095
+		 * @param y
+		 *            y coordinate, 0..4095
+		 * @param z
+		 *            z coordinate, 0..4095
+		 * @return this
+		 */
+		BlockStub at(int x, int y, int z) {
+			this.x = BOXED[x];
+			this.y = BOXED[y];
+			this.z = BOXED[z];
+			return this;
+		}
+
+		/**
+		 * Sets the block that <code>getRelative</code> returns for every
+		 * offset. Without a neighbour, the block returns itself.
+		 * 
+		 * @param neighbour
+		 *            the neighbour
+		 * @return this
+		 */
+		BlockStub withNeighbour(BlockStub neighbour) {
+			this.neighbour = neighbour.block;
+			return this;
+		}
+
+		/**
+		 * Sets the block that <code>getRelative</code> returns for one
+		 * offset, taking precedence over <code>withNeighbour</code>.
+		 * 
+		 * @param dx
+		 *            x offset, -1..1
+		 * @param dy
+		 *            y offset, -1..1
+		 * @param dz
+		 *            z offset, -1..1
+		 * @param relative
+		 *            the block at that offset
+		 * @return this
+		 */
+		BlockStub withRelative(int dx, int dy, int dz, BlockStub relative) {
+			if (relatives == null) {
+				relatives = new Block[27];
+			}
+			relatives[relativeIndex(dx, dy, dz)] = relative.block;
+			return this;
+		}
+
+		/**
+		 * Changes the type of the block without counting it as a change.
+		 * 
+		 * @param typeId
+		 *            the block ID
+		 * @return this
+		 */
+		BlockStub type(int typeId) {
+			this.typeId = Short.valueOf((short) typeId);
+			return this;
+		}
+
+		int getTypeId() {
+			return ((Short) typeId).intValue();
+		}
+
+		int getTypeChanges() {
+			return typeChanges;
+		}
+
+		private static int relativeIndex(int dx, int dy, int dz) {
+			return (dx + 1) * 9 + (dy + 1) * 3 + dz + 1;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "getWorld":
+				return world;
+			case "getX":
+				return x;
+			case "getY":
+				return y;
+			case "getZ":
+				return z;
+			case "getTypeId":
+				return typeId;
+			case "getRelative":
+				if (relatives != null) {
+					Block relative = relatives[relativeIndex(
+							((Integer) args[0]).intValue(),
+							((Integer) args[1]).intValue(),
+							((Integer) args[2]).intValue())];
+					if (relative != null) {
+						return relative;
+					}
+				}
+				return neighbour != null ? neighbour : block;
+			case "setType":
+				typeId = Short.valueOf(((BlockType) args[0]).getId());
+				++typeChanges;
+				return null;
+			case "update":
+				return null;
+			default:
+				return objectMethod(proxy, method, args, "Block");
+			}
+		}
+	}
+
+	/**
+	 * Creates a world.
+	 * 
+	 * @param fqName
+	 *            the fully qualified name of the world
+	 * @return the world
+	 */
+	public static World world(final String fqName) {
+		return (World) Proxy.newProxyInstance(World.class.getClassLoader(),
+				new Class<?>[] { World.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						switch (method.getName()) {
+						case "getFqName":
+						case "getName":
+							return fqName;
+						default:
+							return objectMethod(proxy, method, args, fqName);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Creates a block at 0, 0, 0.
+	 * 
+	 * @param world
+	 *            the world of the block
+	 * @param typeId
+	 *            the block ID
+	 * @return the block
+	 */
+	static BlockStub block(World world, int typeId) {
+		return new BlockStub(world, typeId);
+	}
+
+	/**
+	 * Creates an entity, for the <code>instanceof</code> checks of the
+	 * listeners.
+	 * 
+	 * @param type
+	 *            the entity interface
+	 * @return an entity that implements the interface
+	 */
+	static <T> T entity(final Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						return objectMethod(proxy, method, args,
+								type.getSimpleName());
+					}
+				}));
+	}
+
+	/**
+	 * Creates a hook without running its constructor. Every instance field
+	 * whose type matches one of the values is set to the first matching
+	 * value.
+	 * 
+	 * @param type
+	 *            the hook class
+	 * @param values
+	 *            the blocks, entities, causes, lists etc. of the hook
+	 * @return the hook
+	 */
+	static <T extends CancelableHook> T hook(Class<T> type, Object... values) {
+		T hook = allocate(type);
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				for (Object value : values) {
+					if (field.getType().isInstance(value)) {
+						set(field, hook, value);
+						break;
+					}
+				}
+			}
+		}
+		return hook;
+	}
+
+	/**
+	 * Resets the canceled state of a hook, so that it can be passed to a
+	 * handler again.
+	 * 
+	 * @param hook
+	 *            the hook
+	 */
+	static void uncancel(CancelableHook hook) {
+		for (Field field : CancelableHook.class.getDeclaredFields()) {
+			if (field.getType() == boolean.class
+					&& !Modifier.isStatic(field.getModifiers())) {
+				set(field, hook, Boolean.FALSE);
+			}
+		}
+	}
+
+	/**
+	 * Creates the plugin, set up with fixed world settings instead of
+	 * properties, and a logger for the listeners.
+	 * 
+	 * @param settings
+	 *            the settings of each world by fully qualified name
+	 * @return the plugin
+	 */
+	static FishyShield plugin(final Map<String, WorldSettings> settings) {
+		FishyShield.logger = logger();
+		FishyShield plugin = allocate(FishyShield.class);
+		plugin.initialize(new WorldSettingsCache(null, 8) {
+			@Override
+			public WorldSettings resolveProperties(World world) {
+				return new WorldSettings(settings.get(world.getFqName()));
+			}
+		});
+		return plugin;
+	}
+
+	/**
+	 * Creates a logger for the classes that log through
+	 * <code>FishyShield.logger</code>.
+	 * 
+	 * @return the logger
+	 */
+	public static Logman logger() {
+		try {
+			Method getLogman = Logman.class.getMethod("getLogman",
+					String.class);
+			return (Logman) getLogman.invoke(null, "FishyShield");
+		} catch (ReflectiveOperationException e) {
+			return allocate(Logman.class);
+		}
+	}
+
+	private static <T> T allocate(Class<T> type) {
+		try {
+			return type.cast(ALLOCATE_INSTANCE.invoke(UNSAFE, type));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot allocate " + type, e);
+		}
+	}
+
+	private static void set(Field field, Object target, Object value) {
+		try {
+			field.setAccessible(true);
+			field.set(target, value);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot set " + field, e);
+		}
+	}
+
+	private static Object objectMethod(Object proxy, Method method,
+			Object[] args, String name) {
+		switch (method.getName()) {
+		case "equals":
+			return Boolean.valueOf(proxy == args[0]);
+		case "hashCode":
+			return Integer.valueOf(System.identityHashCode(proxy));
+		case "toString":
+			return name;
+		default:
+			throw new UnsupportedOperationException(name + "."
+					+ method.getName() + " is not stubbed");
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Regression test for <code>FireTracker</code>: the threshold, the window
+ * after which a fire counts as a new one, clearing a world, and keeping the
+ * worlds apart.
+ * <p>
+ * Run by <code>ant test</code>; exits with status 1 if a check fails.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class FireTrackerTest {
+	private static final int CAPACITY = 1024;
+	private static final int THRESHOLD = 3;
+	private static final int WINDOW = 200;
+
+	private static final List<String> failures = new ArrayList<>();
+
+	public static void main(String[] args) {
+		testThreshold();
+		testWindow();
+		testClear();
+		testManyWorlds();
+		for (String failure : failures) {
+			System.out.println("FAIL: " + failure);
+		}
+		if (!failures.isEmpty()) {
+			System.exit(1);
+		}
+		System.out.println("FireTracker: all checks passed");
+	}
+
+	private static void testThreshold() {
+		FireTracker tracker = createTracker();
+		long pos = ProtectionEngine.pack(1, 64, 1);
+		for (int round = 1; round <= 2; ++round) {
+			for (int attempt = 1; attempt <= THRESHOLD; ++attempt) {
+				boolean retire = tracker.recordDenied(0, pos, attempt);
+				check(retire == (attempt == THRESHOLD), "round " + round
+						+ ", attempt " + attempt + " returned " + retire);
+			}
+		}
+		check(!tracker.recordDenied(0, ProtectionEngine.pack(2, 64, 1), 1),
+				"a neighbouring position shares the count");
+	}
+
+	private static void testWindow() {
+		FireTracker tracker = createTracker();
+		long pos = ProtectionEngine.pack(1, 64, 1);
+		long now = 0;
+		for (int attempt = 1; attempt <= 2 * THRESHOLD; ++attempt) {
+			now += WINDOW + 1;
+			check(!tracker.recordDenied(0, pos, now),
+					"attempts further apart than the window reached the"
+							+ " threshold");
+		}
+		// the last attempt counts as the first one of the fire
+		for (int attempt = 2; attempt <= THRESHOLD; ++attempt) {
+			now += WINDOW;
+			boolean retire = tracker.recordDenied(0, pos, now);
+			check(retire == (attempt == THRESHOLD), "attempt " + attempt
+					+ " within the window returned " + retire);
+		}
+	}
+
+	private static void testClear() {
+		FireTracker tracker = createTracker();
+		long pos = ProtectionEngine.pack(1, 64, 1);
+		for (int attempt = 1; attempt < THRESHOLD; ++attempt) {
+			tracker.recordDenied(0, pos, attempt);
+			tracker.recordDenied(1, pos, attempt);
+		}
+		tracker.clear(0);
+		check(!tracker.recordDenied(0, pos, THRESHOLD),
+				"count kept for a cleared world");
+		check(tracker.recordDenied(1, pos, THRESHOLD),
+				"count of another world lost by clear");
+	}
+
+	/**
+	 * The same fire burning in many cloned worlds must be counted separately
+	 * in each of them.
+	 */
+	private static void testManyWorlds() {
+		final int worlds = 12;
+		FireTracker tracker = createTracker();
+		long pos = ProtectionEngine.pack(100, 64, -200);
+		int retired = 0;
+		for (int attempt = 1; attempt <= THRESHOLD; ++attempt) {
+			for (int world = 0; world < worlds; ++world) {
+				if (tracker.recordDenied(world, pos, attempt)) {
+					++retired;
+				}
+			}
+		}
+		check(retired == worlds, retired + " of " + worlds
+				+ " fires retired in cloned worlds");
+	}
+
+	private static FireTracker createTracker() {
+		return new FireTracker(CAPACITY, THRESHOLD, WINDOW);
+	}
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			failures.add(failure);
+		}
+	}
+}
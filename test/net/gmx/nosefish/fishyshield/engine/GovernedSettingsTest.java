@@ -0,0 +1,141 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import net.gmx.nosefish.fishyshield.engine.LoadGovernor.Level;
+
+/**
+ * Regression test for the decisions of the <code>ProtectionEngine</code>
+ * under the load overrides of <code>GovernedSettings</code>: the overrides
+ * must only shed work, never turn on a protection that is disabled.
+ * <p>
+ * Run by <code>ant test</code>; exits with status 1 if a check fails.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class GovernedSettingsTest {
+	private static final int DISABLED_WORLD = 0;
+	private static final int ENABLED_WORLD = 1;
+	private static final int OPEN_WORLD = 2;
+
+	private static final int BLOCK_STONE = 1;
+	private static final int[] BLOCKS = { BLOCK_STONE,
+			ProtectionEngine.BLOCK_TNT, BLOCK_STONE, ProtectionEngine.BLOCK_TNT };
+
+	private static final List<String> failures = new ArrayList<>();
+
+	private static GovernedSettings governed;
+	private static ProtectionEngine engine;
+	private static final BitSet keep = new BitSet();
+
+	public static void main(String[] args) {
+		final WorldSettings[] settings = new WorldSettings[3];
+		// all protections off
+		settings[DISABLED_WORLD] = new WorldSettings();
+		// explosions protected, unknown explosions canceled
+		settings[ENABLED_WORLD] = new WorldSettings();
+		settings[ENABLED_WORLD].setExplosionEnable(true);
+		settings[ENABLED_WORLD].setExplosionDamageBlocks(false);
+		settings[ENABLED_WORLD].setIgniteEnable(true);
+		// protections on, but blocks may be destroyed
+		settings[OPEN_WORLD] = new WorldSettings();
+		settings[OPEN_WORLD].setExplosionEnable(true);
+		settings[OPEN_WORLD].setExplosionDamageBlocks(true);
+		governed = new GovernedSettings(new WorldSettingsSource() {
+			@Override
+			public WorldSettings getSettings(int worldId) {
+				return settings[worldId];
+			}
+		});
+		engine = new ProtectionEngine(governed);
+
+		testUnknownSources();
+		testStopCascade();
+		testProtectAll();
+		for (String failure : failures) {
+			System.out.println("FAIL: " + failure);
+		}
+		if (!failures.isEmpty()) {
+			System.exit(1);
+		}
+		System.out.println("GovernedSettings: all checks passed");
+	}
+
+	private static void testUnknownSources() {
+		for (Level level : Level.values()) {
+			governed.setLevel(level);
+			check(explode(DISABLED_WORLD, ProtectionEngine.EXPLOSION_UNKNOWN)
+					!= ProtectionEngine.EXPLOSION_CANCELED, level
+					+ ": unknown explosion canceled in a disabled world");
+			check(explode(ENABLED_WORLD, ProtectionEngine.EXPLOSION_UNKNOWN)
+					== ProtectionEngine.EXPLOSION_CANCELED, level
+					+ ": unknown explosion not canceled in a protected world");
+			check(engine.evaluateIgnition(DISABLED_WORLD, BLOCK_STONE,
+					ProtectionEngine.CAUSE_UNKNOWN, ProtectionEngine.PERM_NONE)
+					== ProtectionEngine.ALLOW, level
+					+ ": unknown ignition denied in a disabled world");
+			check(engine.evaluateIgnition(ENABLED_WORLD, BLOCK_STONE,
+					ProtectionEngine.CAUSE_UNKNOWN, ProtectionEngine.PERM_NONE)
+					!= ProtectionEngine.ALLOW, level
+					+ ": unknown ignition allowed in a protected world");
+		}
+	}
+
+	private static void testStopCascade() {
+		governed.setLevel(Level.NORMAL);
+		check(explode(OPEN_WORLD, ProtectionEngine.EXPLOSION_TNT)
+				== ProtectionEngine.EXPLOSION_UNCHANGED,
+				"NORMAL: explosion with block damage changed");
+		check(engine.evaluateIgnition(DISABLED_WORLD, BLOCK_STONE,
+				ProtectionEngine.CAUSE_FIRE_SPREAD, ProtectionEngine.PERM_NONE)
+				== ProtectionEngine.ALLOW, "NORMAL: fire spread denied");
+		governed.setLevel(Level.STRAINED);
+		for (int world : new int[] { DISABLED_WORLD, OPEN_WORLD }) {
+			int result = explode(world, ProtectionEngine.EXPLOSION_CREEPER);
+			BitSet expected = new BitSet();
+			expected.set(0);
+			expected.set(2);
+			check(result == ProtectionEngine.EXPLOSION_FILTERED
+					&& keep.equals(expected), "STRAINED: world " + world
+					+ " keeps " + keep + " instead of the blocks except TNT");
+		}
+		check(explode(ENABLED_WORLD, ProtectionEngine.EXPLOSION_TNT)
+				== ProtectionEngine.EXPLOSION_FILTERED && keep.isEmpty(),
+				"STRAINED: TNT cascades in a protected world");
+		check(engine.evaluateIgnition(DISABLED_WORLD, BLOCK_STONE,
+				ProtectionEngine.CAUSE_FIRE_SPREAD, ProtectionEngine.PERM_NONE)
+				!= ProtectionEngine.ALLOW, "STRAINED: fire spread allowed");
+		check(engine.evaluateIgnition(DISABLED_WORLD, BLOCK_STONE,
+				ProtectionEngine.CAUSE_LAVA, ProtectionEngine.PERM_NONE)
+				== ProtectionEngine.ALLOW,
+				"STRAINED: disabled ignite protection turned on");
+	}
+
+	private static void testProtectAll() {
+		governed.setLevel(Level.OVERLOADED);
+		check(explode(OPEN_WORLD, ProtectionEngine.EXPLOSION_CREEPER)
+				== ProtectionEngine.EXPLOSION_FILTERED && keep.isEmpty(),
+				"OVERLOADED: explosion destroys blocks");
+		check(engine.evaluateLiquid(DISABLED_WORLD, BLOCK_STONE)
+				!= ProtectionEngine.ALLOW,
+				"OVERLOADED: liquid destroys blocks");
+		governed.setLevel(Level.NORMAL);
+		check(engine.evaluateLiquid(DISABLED_WORLD, BLOCK_STONE)
+				== ProtectionEngine.ALLOW,
+				"NORMAL: liquid protection left on");
+	}
+
+	private static int explode(int worldId, int explosionType) {
+		return engine.evaluateExplosion(worldId, explosionType, BLOCKS,
+				BLOCKS.length, keep);
+	}
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			failures.add(failure);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package net.gmx.nosefish.fishyshield.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.gmx.nosefish.fishyshield.engine.LoadGovernor.Level;
+
+/**
+ * Regression test for <code>LoadGovernor</code>: the level follows the tick
+ * rate only once the window is full, and steps up and down with hysteresis.
+ * <p>
+ * Run by <code>ant test</code>; exits with status 1 if a check fails.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class LoadGovernorTest {
+	// long enough to replace the whole window of 100 ticks
+	private static final int PHASE_TICKS = 200;
+	// passing through several levels, the number of changes depends on
+	// when the evaluations fall
+	private static final int ANY = -1;
+
+	private static final List<String> failures = new ArrayList<>();
+
+	private static LoadGovernor governor;
+	private static long now;
+	private static int changes;
+
+	public static void main(String[] args) {
+		governor = new LoadGovernor();
+		now = 1;
+		run(99, 5.0);
+		check(Level.NORMAL, 0, "before the window is full");
+		run(PHASE_TICKS, 5.0);
+		check(Level.OVERLOADED, ANY, "at 5 TPS");
+		run(PHASE_TICKS, 20.0);
+		check(Level.NORMAL, ANY, "back at 20 TPS");
+		run(PHASE_TICKS, 20.0);
+		check(Level.NORMAL, 0, "at a steady 20 TPS");
+		run(PHASE_TICKS, 16.0);
+		check(Level.STRAINED, 1, "at 16 TPS");
+		// between the enter and the leave threshold of STRAINED
+		run(PHASE_TICKS, 18.0);
+		check(Level.STRAINED, 0, "back at 18 TPS");
+		run(PHASE_TICKS, 11.0);
+		check(Level.OVERLOADED, 1, "at 11 TPS");
+		// between the enter and the leave threshold of OVERLOADED
+		run(PHASE_TICKS, 14.0);
+		check(Level.OVERLOADED, 0, "back at 14 TPS");
+		run(PHASE_TICKS, 16.0);
+		check(Level.STRAINED, 1, "back at 16 TPS");
+		run(PHASE_TICKS, 19.5);
+		check(Level.NORMAL, 1, "back at 19.5 TPS");
+		run(PHASE_TICKS, 8.0);
+		check(Level.OVERLOADED, ANY, "after a drop to 8 TPS");
+		for (String failure : failures) {
+			System.out.println("FAIL: " + failure);
+		}
+		if (!failures.isEmpty()) {
+			System.exit(1);
+		}
+		System.out.println("LoadGovernor: all checks passed");
+	}
+
+	/**
+	 * Feeds ticks at a constant rate.
+	 * 
+	 * @param ticks
+	 *            the number of ticks
+	 * @param tps
+	 *            the ticks per second
+	 */
+	private static void run(int ticks, double tps) {
+		long duration = (long) (1e9 / tps);
+		changes = 0;
+		for (int i = 0; i < ticks; ++i) {
+			now += duration;
+			if (governor.onTick(now)) {
+				++changes;
+			}
+		}
+	}
+
+	private static void check(Level expected, int expectedChanges,
+			String when) {
+		if (governor.getLevel() != expected) {
+			failures.add("level " + governor.getLevel() + " instead of "
+					+ expected + " " + when);
+		}
+		if (expectedChanges != ANY && changes != expectedChanges) {
+			failures.add(changes + " level changes instead of "
+					+ expectedChanges + " " + when);
+		}
+	}
+}
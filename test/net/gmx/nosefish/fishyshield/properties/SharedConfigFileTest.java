@@ -0,0 +1,203 @@
+package net.gmx.nosefish.fishyshield.properties;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import net.gmx.nosefish.fishyshield.FishyShield;
+import net.gmx.nosefish.fishyshield.Stubs;
+import net.gmx.nosefish.fishyshield.engine.WorldSettings;
+
+/**
+ * Regression test for <code>SharedConfigFile</code>, publishing to and
+ * reading from a temporary directory: round trip of the settings, skipping
+ * unchanged versions, deleting old versions, rejecting corrupt files, and
+ * the fallback of the <code>SharedConfigWatcher</code> to an older version.
+ * <p>
+ * Run by <code>ant test</code>; exits with status 1 if a check fails.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class SharedConfigFileTest {
+	private static final List<String> failures = new ArrayList<>();
+
+	public static void main(String[] args) throws IOException {
+		FishyShield.logger = Stubs.logger();
+		File directory = Files.createTempDirectory("fishyshield-test")
+				.toFile();
+		try {
+			testRoundTrip(directory);
+			testUnchanged(directory);
+			testOldVersionsDeleted(directory);
+			testCorrupt(directory);
+			testTruncated(directory);
+			testWatcherFallback(directory);
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+		for (String failure : failures) {
+			System.out.println("FAIL: " + failure);
+		}
+		if (!failures.isEmpty()) {
+			System.exit(1);
+		}
+		System.out.println("SharedConfigFile: all checks passed");
+	}
+
+	private static void testRoundTrip(File directory) throws IOException {
+		long sequence = SharedConfigFile.publish(directory, defaults(),
+				worlds(false));
+		check(sequence == 1, "first version has sequence " + sequence);
+		SharedConfigFile read = SharedConfigFile.read(directory, sequence);
+		check(read.getSequence() == sequence, "sequence not read back");
+		WorldSettings nether = read.getSettings("world_NETHER");
+		check(nether.isIgniteEnable() && !nether.isIgniteLava()
+				&& nether.isExplosionEnable()
+				&& !nether.isExplosionCascadeTnt(), "flags not read back");
+		check(nether.getFireproofBlocks().contains(5)
+				&& nether.getFireproofBlocks().contains(4095)
+				&& !nether.getFireproofBlocks().contains(6),
+				"fireproof blocks not read back");
+		check(nether.getLiquidBlocks().contains(50),
+				"liquid blocks not read back");
+		WorldSettings unknown = read.getSettings("unknown");
+		check(!unknown.isIgniteEnable() && unknown.isLiquidEnable()
+				&& unknown.getLiquidBlocks().next(0) < 0,
+				"unknown world does not get the defaults");
+	}
+
+	private static void testUnchanged(File directory) throws IOException {
+		long latest = SharedConfigFile.findLatestSequence(directory);
+		check(SharedConfigFile.publish(directory, defaults(), worlds(false))
+				== 0, "unchanged settings published again");
+		check(SharedConfigFile.findLatestSequence(directory) == latest,
+				"unchanged settings created a version");
+		long sequence = SharedConfigFile.publish(directory, defaults(),
+				worlds(true));
+		check(sequence == latest + 1, "changed settings not published");
+		check(SharedConfigFile.read(directory, sequence)
+				.getSettings("world_NETHER").isIgniteLava(),
+				"changed settings not read back");
+	}
+
+	private static void testOldVersionsDeleted(File directory)
+			throws IOException {
+		for (int i = 0; i < 4; ++i) {
+			SharedConfigFile.publish(directory, defaults(), worlds(i % 2 != 0));
+		}
+		long latest = SharedConfigFile.findLatestSequence(directory);
+		int versions = 0;
+		for (String name : directory.list()) {
+			if (name.endsWith(".fsc")) {
+				++versions;
+			}
+		}
+		check(latest == 6, "latest version is " + latest + " instead of 6");
+		check(versions == 3, versions + " versions kept instead of 3");
+	}
+
+	private static void testCorrupt(File directory) throws IOException {
+		long latest = SharedConfigFile.findLatestSequence(directory);
+		File file = new File(directory, "fishyshield-" + latest + ".fsc");
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(raf.length() / 2);
+			int b = raf.read();
+			raf.seek(raf.length() / 2);
+			raf.write(b ^ 1);
+		}
+		try {
+			SharedConfigFile.read(directory, latest);
+			check(false, "corrupt version read");
+		} catch (IOException e) {
+			// expected
+		}
+		// the latest version is worlds(false), but it is unusable
+		check(SharedConfigFile.publish(directory, defaults(), worlds(false))
+				== latest + 1, "corrupt version not replaced");
+	}
+
+	/**
+	 * A file with a valid checksum that ends in the middle of an entry must
+	 * be rejected with an <code>IOException</code>.
+	 */
+	private static void testTruncated(File directory) throws IOException {
+		long sequence = SharedConfigFile.findLatestSequence(directory) + 1;
+		ByteBuffer content = ByteBuffer.allocate(4 + 4 + 8 + 4 + 8);
+		content.putInt(0x46534346).putInt(1).putLong(sequence).putInt(2);
+		CRC32 crc = new CRC32();
+		crc.update(content.array(), 0, content.position());
+		content.putLong(crc.getValue());
+		Files.write(new File(directory, "fishyshield-" + sequence + ".fsc")
+				.toPath(), content.array());
+		try {
+			SharedConfigFile.read(directory, sequence);
+			check(false, "truncated version read");
+		} catch (IOException e) {
+			// expected
+		} catch (RuntimeException e) {
+			check(false, "truncated version throws " + e);
+		}
+	}
+
+	/**
+	 * The watcher must fall back to the newest readable version, and must
+	 * not read a broken version again.
+	 */
+	private static void testWatcherFallback(File directory)
+			throws IOException {
+		// the latest version is broken by testTruncated
+		long broken = SharedConfigFile.findLatestSequence(directory);
+		SharedConfigWatcher watcher = new SharedConfigWatcher(directory, 0,
+				1000);
+		SharedConfigFile version = watcher.readNewVersion();
+		check(version != null && version.getSequence() == broken - 1,
+				"no fallback to the version before the broken one");
+		check(watcher.readNewVersion() == null,
+				"broken or current version read again");
+		long sequence = SharedConfigFile.publish(directory, defaults(),
+				worlds(true));
+		version = watcher.readNewVersion();
+		check(version != null && version.getSequence() == sequence,
+				"new version after a broken one not read");
+	}
+
+	private static WorldSettings defaults() {
+		WorldSettings ws = new WorldSettings();
+		ws.setLiquidEnable(true);
+		return ws;
+	}
+
+	private static Map<String, WorldSettings> worlds(boolean lava) {
+		Map<String, WorldSettings> worlds = new HashMap<>();
+		WorldSettings nether = new WorldSettings();
+		nether.setIgniteEnable(true);
+		nether.setIgniteLava(lava);
+		nether.setExplosionEnable(true);
+		nether.setExplosionCascadeTnt(false);
+		nether.getFireproofBlocks().add(5);
+		nether.getFireproofBlocks().add(4095);
+		nether.getLiquidBlocks().add(50);
+		worlds.put("world_NETHER", nether);
+		for (int i = 0; i < 8; ++i) {
+			worlds.put("world" + i, new WorldSettings());
+		}
+		return worlds;
+	}
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			failures.add(failure);
+		}
+	}
+}
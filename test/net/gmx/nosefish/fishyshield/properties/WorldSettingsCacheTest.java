@@ -0,0 +1,153 @@
+package net.gmx.nosefish.fishyshield.properties;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.canarymod.api.world.World;
+import net.gmx.nosefish.fishyshield.Stubs;
+import net.gmx.nosefish.fishyshield.engine.GovernedSettings;
+import net.gmx.nosefish.fishyshield.engine.LoadGovernor.Level;
+import net.gmx.nosefish.fishyshield.engine.SettingsReleaseListener;
+import net.gmx.nosefish.fishyshield.engine.WorldSettings;
+
+/**
+ * Regression test for <code>WorldSettingsCache</code>: least recently used
+ * eviction, release and reuse of world IDs, the overridden copies of
+ * <code>GovernedSettings</code> following the cache, and the memory estimate
+ * of the report.
+ * <p>
+ * Run by <code>ant test</code>; exits with status 1 if a check fails.
+ * 
+ * @author Stefan Steinheimer (nosefish)
+ * 
+ */
+public final class WorldSettingsCacheTest {
+	// how far the memory estimate may be off
+	private static final double ESTIMATE_TOLERANCE = 0.15;
+	private static final int MEASURED_SETTINGS = 1000;
+
+	private static final List<String> failures = new ArrayList<>();
+
+	/**
+	 * Records the IDs whose settings were dropped.
+	 */
+	private static final class Releases implements SettingsReleaseListener {
+		final List<Integer> ids = new ArrayList<>();
+
+		@Override
+		public void settingsReleased(int worldId) {
+			ids.add(Integer.valueOf(worldId));
+		}
+	}
+
+	public static void main(String[] args) {
+		testEviction();
+		testRelease();
+		testGovernedCopies();
+		testMemoryEstimate();
+		for (String failure : failures) {
+			System.out.println("FAIL: " + failure);
+		}
+		if (!failures.isEmpty()) {
+			System.exit(1);
+		}
+		System.out.println("WorldSettingsCache: all checks passed");
+	}
+
+	private static void testEviction() {
+		WorldSettingsCache cache = createCache(2);
+		Releases releases = new Releases();
+		cache.setReleaseListener(releases);
+		int a = cache.getWorldId(Stubs.world("a"));
+		int b = cache.getWorldId(Stubs.world("b"));
+		int c = cache.getWorldId(Stubs.world("c"));
+		WorldSettings settingsA = cache.getSettings(a);
+		cache.getSettings(b);
+		cache.getSettings(a);
+		cache.getSettings(c);
+		check(releases.ids.equals(ids(b)), "evicted " + releases.ids
+				+ " instead of the least recently used world " + b);
+		check(cache.getSettings(a) == settingsA,
+				"recently used settings were resolved again");
+	}
+
+	private static void testRelease() {
+		WorldSettingsCache cache = createCache(2);
+		Releases releases = new Releases();
+		cache.setReleaseListener(releases);
+		World a = Stubs.world("a");
+		int idA = cache.getWorldId(a);
+		cache.getSettings(idA);
+		check(cache.release(a) == idA, "release returned the wrong ID");
+		check(releases.ids.equals(ids(idA)), "release not reported");
+		check(cache.release(a) == -1, "released a world twice");
+		check(cache.getWorldId(Stubs.world("d")) == idA,
+				"ID of the released world not reused");
+	}
+
+	private static void testGovernedCopies() {
+		WorldSettingsCache cache = createCache(2);
+		GovernedSettings governed = new GovernedSettings(cache);
+		cache.setReleaseListener(governed);
+		governed.setLevel(Level.STRAINED);
+		int idA = cache.getWorldId(Stubs.world("a"));
+		int idB = cache.getWorldId(Stubs.world("b"));
+		World c = Stubs.world("c");
+		int idC = cache.getWorldId(c);
+		governed.getSettings(idA);
+		governed.getSettings(idB);
+		// evicts the settings of a
+		governed.getSettings(idC);
+		check(governed.getReport().contains(" 2 overridden"),
+				"copies not bounded by the cache: " + governed.getReport());
+		cache.release(c);
+		check(governed.getReport().contains(" 1 overridden"),
+				"copy of a released world kept: " + governed.getReport());
+		check(governed.getSettings(idB).isIgniteStopSpread(),
+				"override missing after eviction");
+	}
+
+	private static void testMemoryEstimate() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		WorldSettings[] kept = new WorldSettings[MEASURED_SETTINGS];
+		long before = threads.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < kept.length; ++i) {
+			kept[i] = new WorldSettings();
+		}
+		long measured = (threads.getThreadAllocatedBytes(threadId) - before)
+				/ kept.length;
+		System.out.println("WorldSettings: " + measured
+				+ " bytes measured, " + WorldSettingsCache.SETTINGS_BYTES
+				+ " bytes estimated");
+		check(Math.abs(measured - WorldSettingsCache.SETTINGS_BYTES) <= measured
+				* ESTIMATE_TOLERANCE, "memory estimate "
+				+ WorldSettingsCache.SETTINGS_BYTES + " is off, measured "
+				+ measured);
+	}
+
+	private static WorldSettingsCache createCache(int capacity) {
+		return new WorldSettingsCache(null, capacity) {
+			@Override
+			public WorldSettings resolveProperties(World world) {
+				return new WorldSettings();
+			}
+		};
+	}
+
+	private static List<Integer> ids(int... ids) {
+		List<Integer> list = new ArrayList<>();
+		for (int id : ids) {
+			list.add(Integer.valueOf(id));
+		}
+		return list;
+	}
+
+	private static void check(boolean condition, String failure) {
+		if (!condition) {
+			failures.add(failure);
+		}
+	}
+}